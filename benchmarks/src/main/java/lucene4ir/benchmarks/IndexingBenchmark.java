@@ -0,0 +1,237 @@
+package lucene4ir.benchmarks;
+
+import lucene4ir.IndexParams;
+import lucene4ir.IndexerApp;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+
+import javax.xml.bind.JAXB;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds whole indexes with IndexerApp, in this JVM, and records for each build the
+ * documents indexed per second, the peak heap used, the time spent in garbage collection
+ * and the size of the finished index. Each result is appended to resultsFile as one line
+ * of JSON, so that the results of different versions (see label) can be compared.
+ *
+ * Each run is an index params file, whose indexName is replaced by a directory under
+ * indexDir. The first build of a JVM includes the JIT warming up; set repeats to more
+ * than 1 to see the builds after it. The peak heap is the largest heap in use seen by a
+ * thread that samples it every few milliseconds, so a short spike between two samples
+ * can be missed.
+ *
+ * Run it from the lucene4ir directory, where the paths in the params files are relative to.
+ */
+public class IndexingBenchmark {
+
+    private IndexingBenchmarkParams p;
+    private String label;
+
+    public IndexingBenchmark(String paramFile, String label){
+        System.out.println("Indexing Benchmark");
+        this.label = label;
+        try {
+            p = JAXB.unmarshal(new File(paramFile), IndexingBenchmarkParams.class);
+        } catch (Exception e){
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            System.exit(1);
+        }
+        if (p.resultsFile == null)
+            p.resultsFile = "benchmark_results.jsonl";
+        if (p.indexDir == null)
+            p.indexDir = "benchmark_index";
+        if (p.repeats == null || p.repeats < 1)
+            p.repeats = 1;
+        System.out.println("Results file: " + p.resultsFile);
+    }
+
+    public void runAll(){
+        for (BenchmarkRun run : p.runs) {
+            for (int i = 1; i <= p.repeats; i++) {
+                String result = run(run, i);
+                System.out.println("Benchmark " + result);
+                try (PrintWriter out = new PrintWriter(new FileWriter(p.resultsFile, true))) {
+                    out.println(result);
+                } catch (IOException e){
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the index of the run and returns its result as JSON.
+     */
+    private String run(BenchmarkRun run, int repeat){
+        String indexName = Paths.get(p.indexDir, run.name).toString();
+        IndexParams ip = JAXB.unmarshal(new File(run.indexParams), IndexParams.class);
+        ip.indexName = indexName;
+        File paramFile = null;
+        try {
+            new File(p.indexDir).mkdirs();
+            paramFile = File.createTempFile(run.name + "_params", ".xml", new File(p.indexDir));
+            JAXB.marshal(ip, paramFile);
+
+            System.gc();
+            long gcMillis = gcMillis();
+            long gcCount = gcCount();
+            HeapSampler heap = new HeapSampler();
+            heap.start();
+            long start = System.nanoTime();
+
+            IndexerApp indexer = new IndexerApp(paramFile.getPath());
+            indexer.indexDocumentsFromFiles(indexer.readFileListFromFile());
+            indexer.finished();
+
+            double secs = (System.nanoTime() - start) / 1e9;
+            long peakHeap = heap.stopAndGetPeak();
+            gcMillis = gcMillis() - gcMillis;
+            gcCount = gcCount() - gcCount;
+
+            long docs;
+            try (IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexName)))) {
+                docs = reader.numDocs();
+            }
+            return String.format(Locale.ROOT,
+                    "{\"time\": \"%s\", \"label\": \"%s\", \"run\": \"%s\", \"repeat\": %d, \"indexType\": \"%s\", " +
+                            "\"docs\": %d, \"seconds\": %.3f, \"docsPerSec\": %.1f, \"peakHeapMB\": %.1f, " +
+                            "\"gcMillis\": %d, \"gcCount\": %d, \"indexBytes\": %d}",
+                    Instant.now(), label, run.name, repeat, ip.indexType,
+                    docs, secs, docs / secs, peakHeap / 1048576.0, gcMillis, gcCount, directorySize(Paths.get(indexName)));
+        } catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        } finally {
+            if (paramFile != null) {
+                paramFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Samples the heap in use during a build and keeps the largest value. The peak usage
+     * of each memory pool is reached at a different time, e.g. eden just before a young
+     * collection and the old generation after it, so adding those up would overstate
+     * the peak of the heap as a whole.
+     */
+    private static class HeapSampler extends Thread {
+
+        private static final long INTERVAL_MILLIS = 5;
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        HeapSampler(){
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        public void run(){
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(INTERVAL_MILLIS);
+                } catch (InterruptedException e){
+                    return;
+                }
+            }
+        }
+
+        private void sample(){
+            peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+        }
+
+        long stopAndGetPeak(){
+            running = false;
+            try {
+                join();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            sample();
+            return peak;
+        }
+    }
+
+    private static long gcMillis(){
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long gcCount(){
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long directorySize(Path dir) throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+
+    public static void main(String []args) {
+
+        String paramFile = "";
+
+        try {
+            paramFile = args[0];
+        } catch (Exception e) {
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            System.exit(1);
+        }
+
+        IndexingBenchmark benchmark = new IndexingBenchmark(paramFile, args.length > 1 ? args[1] : "");
+        benchmark.runAll();
+        System.out.println("Done");
+    }
+}
+
+@XmlRootElement(name = "indexingBenchmarkParams")
+@XmlAccessorType(XmlAccessType.FIELD)
+class IndexingBenchmarkParams {
+    public String resultsFile; /** results are appended to this file, one JSON object per line, default benchmark_results.jsonl **/
+    public String indexDir; /** the indexes are built under this directory, default benchmark_index **/
+    public Integer repeats; /** how many times each index is built, default 1 **/
+    @XmlElement(name = "run")
+    public List<BenchmarkRun> runs = new ArrayList<>();
+}
+
+@XmlAccessorType(XmlAccessType.FIELD)
+class BenchmarkRun {
+    public String name; /** names the run in the results, and its index directory **/
+    public String indexParams; /** the index params file of the build **/
+}
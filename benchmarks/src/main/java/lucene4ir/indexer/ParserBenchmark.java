@@ -0,0 +1,207 @@
+package lucene4ir.indexer;
+
+import lucene4ir.IndexParams;
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many documents per second each DocumentIndexer parses, over the sample
+ * files in data/. The records of the files are read into memory first, and the indexers
+ * hand their documents to the benchmark rather than to the IndexWriter, so only parsing
+ * is timed; IndexingBenchmark times whole builds, with analysis and writing.
+ *
+ * TRECTIPSTER parses the AP sample, as TRECNEWS does. data/ has no TRECWEB sample, so its
+ * records are made from the AP articles, each as a web page with a DOCHDR and HTML markup.
+ *
+ * It is in the lucene4ir.indexer package to read the records with readDocumentRecords.
+ * Run it from the lucene4ir directory, as the file lists are relative to it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"CACM", "TRECNEWS", "TRECTIPSTER", "TRECAQUAINT", "TRECWEB", "PUBMED"})
+    public String indexType;
+
+    private DocumentIndexer indexer;
+    private Path indexDir;
+    private final List<String> records = new ArrayList<String>();
+    private int next = 0;
+    private Document last;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        indexDir = Files.createTempDirectory("parser-benchmark");
+        IndexParams p = new IndexParams();
+        p.indexName = indexDir.toString();
+        p.indexType = indexType;
+        p.recordPositions = false;
+        indexer = newIndexer(p);
+
+        switch (indexType) {
+            case "CACM":
+                readRecords("data/cacm_file_list");
+                break;
+            case "TRECNEWS":
+            case "TRECTIPSTER":
+                readRecords("data/ap_file_list");
+                break;
+            case "TRECAQUAINT":
+                readRecords("data/aq_file_list");
+                break;
+            case "PUBMED":
+                readRecords("data/pubmed_file_list");
+                break;
+            case "TRECWEB":
+                for (String file : readFileList("data/ap_file_list")) {
+                    indexer.readDocumentRecords(file, record -> records.add(webPage(records.size(), record.toString())));
+                }
+                break;
+        }
+        if (records.isEmpty()) {
+            throw new IllegalStateException("No " + indexType + " records in data/");
+        }
+        System.out.println(records.size() + " " + indexType + " records");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        indexer.writer.rollback();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(indexDir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(indexDir);
+    }
+
+    /**
+     * Parses the next record; one operation is one document.
+     */
+    @Benchmark
+    public Document parse(){
+        indexer.indexDocumentRecord(records.get(next));
+        next = next + 1 == records.size() ? 0 : next + 1;
+        return last;
+    }
+
+    private DocumentIndexer newIndexer(IndexParams p){
+        switch (indexType) {
+            case "CACM":
+                return new CACMDocumentIndexer(p) {
+                    @Override
+                    public void addDocumentToIndex(Document doc){
+                        last = doc;
+                    }
+                };
+            case "TRECNEWS":
+                return new TRECNEWSDocumentIndexer(p) {
+                    @Override
+                    public void addDocumentToIndex(Document doc){
+                        last = doc;
+                    }
+                };
+            case "TRECTIPSTER":
+                return new TRECTipsterDocumentIndexer(p) {
+                    @Override
+                    public void addDocumentToIndex(Document doc){
+                        last = doc;
+                    }
+                };
+            case "TRECAQUAINT":
+                return new TRECAquaintDocumentIndexer(p) {
+                    @Override
+                    public void addDocumentToIndex(Document doc){
+                        last = doc;
+                    }
+                };
+            case "TRECWEB":
+                return new TRECWebDocumentIndexer(p) {
+                    @Override
+                    public void addDocumentToIndex(Document doc){
+                        last = doc;
+                    }
+                };
+            case "PUBMED":
+                return new PubMedDocumentIndexer(p) {
+                    @Override
+                    public void addDocumentToIndex(Document doc){
+                        last = doc;
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown index type: " + indexType);
+        }
+    }
+
+    private void readRecords(String fileList) throws IOException {
+        for (String file : readFileList(fileList)) {
+            indexer.readDocumentRecords(file, record -> records.add(record.toString()));
+        }
+    }
+
+    private static List<String> readFileList(String fileList) throws IOException {
+        List<String> files = new ArrayList<String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(fileList))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    files.add(line.trim());
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns a TRECWEB record of a page whose title is the headline of the AP article
+     * and whose paragraphs are its text.
+     */
+    private static String webPage(int n, String article){
+        String title = between(article, "<HEAD>", "</HEAD>");
+        String text = between(article, "<TEXT>", "</TEXT>");
+        StringBuilder page = new StringBuilder();
+        page.append("<DOC>\n<DOCNO>WEB-").append(n).append("</DOCNO>\n");
+        page.append("<DOCHDR>\nhttp://www.example.com/news/").append(n).append(".html\n");
+        page.append("HTTP/1.1 200 OK\nContent-Type: text/html\n</DOCHDR>\n");
+        page.append("<html><head><title>").append(title).append("</title>\n");
+        page.append("<script>var n = ").append(n).append(";</script></head>\n<body>\n");
+        for (String paragraph : text.split("\n   ")) {
+            page.append("<p>").append(paragraph.trim()).append("</p>\n");
+        }
+        page.append("<a href=\"/news/").append(n + 1).append(".html\">next</a>\n</body></html>\n</DOC>\n");
+        return page.toString();
+    }
+
+    private static String between(String text, String open, String close){
+        int start = text.indexOf(open);
+        int end = text.indexOf(close, start + 1);
+        return start < 0 || end < 0 ? "" : text.substring(start + open.length(), end).trim();
+    }
+}
@@ -0,0 +1,386 @@
+package lucene4ir;
+
+import lucene4ir.utils.AnchorText;
+import lucene4ir.utils.LinkGraph;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.OfflineSorter;
+import parse.WarcHTMLRecord;
+import parse.WarcReader;
+import parse.WarcRecord;
+
+import javax.xml.bind.JAXB;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Gathers the anchor text of the links to each page of a web collection into an anchor
+ * index, from which CLUEWEBDocumentIndexer indexes it as the anchor field of the page (see
+ * IndexParams.anchorIndex).
+ *
+ * The WARC files are read on several threads for the links of each page and their text
+ * (WarcHTMLRecord.getURLOutLinksWithAltText). Each link becomes a record of the key of the
+ * url it links to and its text, and each page a record of the key of its own url and its
+ * docnum. The threads hand the records through a bounded queue to a single writer, which
+ * streams them to a file on disk, sorted with Lucene's OfflineSorter; that brings the record
+ * of each page together with those of the links to it, and one pass over the sorted records
+ * then joins them. The heap so takes the queue, the pages being parsed and the sort buffer,
+ * however many links the collection has.
+ *
+ * Links from a page to itself, and to pages outside the collection, are dropped. A page
+ * keeps the text of at most maxAnchors links, a sample of the pages linking to it.
+ */
+public class AnchorTextApp {
+
+    public AnchorTextParams p;
+
+    private static final String TREC_ID = "WARC-TREC-ID";
+    private static final byte PAGE = 0;
+    private static final byte LINK = 1;
+    private static final int MAX_ANCHOR_LENGTH = 256;
+    // records queued per reading thread, and the marker each thread queues after a file
+    private static final int QUEUED_RECORDS = 4096;
+    private static final byte[] END_OF_FILE = new byte[0];
+
+    private long pages = 0;
+    private long links = 0;
+
+    public void readParamsFromFile(String paramFile){
+        try {
+            p = JAXB.unmarshal(new File(paramFile), AnchorTextParams.class);
+        } catch (Exception e){
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (p.threads == null || p.threads < 1)
+            p.threads = Runtime.getRuntime().availableProcessors();
+        if (p.maxAnchors == null || p.maxAnchors < 1)
+            p.maxAnchors = 1000;
+        if (p.sortBufferMB == null || p.sortBufferMB < 1)
+            p.sortBufferMB = 256;
+        if (p.tempDir == null)
+            p.tempDir = p.anchorIndex + "_sort";
+
+        System.out.println("List of WARC files: " + p.fileList);
+        System.out.println("Anchor index: " + p.anchorIndex);
+        System.out.println("Threads: " + p.threads);
+        System.out.println("Most anchors per page: " + p.maxAnchors);
+        System.out.println("Sort buffer: " + p.sortBufferMB + "MB, in " + p.tempDir);
+    }
+
+    public List<String> readFileList(){
+        List<String> files = new ArrayList<String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(p.fileList))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    files.add(line.trim());
+                }
+            }
+        } catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return files;
+    }
+
+    /**
+     * A page: the key of its url, then its docnum.
+     */
+    private static byte[] pageRecord(long urlKey, String docnum){
+        byte[] text = docnum.getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[9 + text.length];
+        putLong(record, urlKey);
+        record[8] = PAGE;
+        System.arraycopy(text, 0, record, 9, text.length);
+        return record;
+    }
+
+    /**
+     * A link: the key of the url it is to, a hash of the page it is from, so that the
+     * links to a page are sorted in a random order of the pages they are from, then its text.
+     */
+    private static byte[] linkRecord(long urlKey, int from, String anchor){
+        if (anchor.length() > MAX_ANCHOR_LENGTH) {
+            anchor = anchor.substring(0, MAX_ANCHOR_LENGTH);
+        }
+        byte[] text = anchor.getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[13 + text.length];
+        putLong(record, urlKey);
+        record[8] = LINK;
+        for (int i = 0; i < 4; i++) {
+            record[9 + i] = (byte) (from >>> (24 - 8 * i));
+        }
+        System.arraycopy(text, 0, record, 13, text.length);
+        return record;
+    }
+
+    private static void putLong(byte[] record, long value){
+        for (int i = 0; i < 8; i++) {
+            record[i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Puts the records of the pages and links in the file on the queue, as they are read.
+     */
+    private static void readRecords(String filename, BlockingQueue<byte[]> records) throws IOException, InterruptedException {
+        try (WarcReader warcs = WarcReader.open(filename)) {
+            WarcRecord warc;
+            while ((warc = warcs.next()) != null) {
+                if (!warc.getHeaderRecordType().equalsIgnoreCase("response")) {
+                    continue;
+                }
+                String docnum = warc.getHeaderMetadataItem(TREC_ID);
+                if (docnum == null) {
+                    continue;
+                }
+                WarcHTMLRecord html = new WarcHTMLRecord(warc);
+                String url = html.getTargetURI();
+                long urlKey = LinkGraph.urlKey(url == null ? "" : url);
+                records.put(pageRecord(urlKey, docnum));
+                if (url == null) {
+                    continue;
+                }
+                html.convertHTMLToDoc();
+                int from = (int) LinkGraph.key(docnum);
+                for (String[] link : html.getURLOutLinksWithAltText()) {
+                    long to = LinkGraph.urlKey(link[0]);
+                    if (to != urlKey) {
+                        records.put(linkRecord(to, from, link[1]));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the records of the pages and links in the files to a file in dir, and returns its name.
+     */
+    public String writeRecords(List<String> files, Directory dir) throws IOException {
+        /*
+            The files are read on p.threads threads, each file on one, and their records
+            written as they come, so that only the records in the queue are held at once.
+         */
+        ExecutorService pool = Executors.newFixedThreadPool(p.threads);
+        final BlockingQueue<byte[]> records = new ArrayBlockingQueue<byte[]>(QUEUED_RECORDS * p.threads);
+        List<Future<Void>> reading = new ArrayList<Future<Void>>();
+        for (final String f : files) {
+            reading.add(pool.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    try {
+                        readRecords(f, records);
+                    } finally {
+                        records.put(END_OF_FILE);
+                    }
+                    return null;
+                }
+            }));
+        }
+        int done = 0;
+        IndexOutput out = dir.createTempOutput("anchors", "links", IOContext.DEFAULT);
+        try (OfflineSorter.ByteSequencesWriter writer = new OfflineSorter.ByteSequencesWriter(out)) {
+            while (done < files.size()) {
+                byte[] record = records.take();
+                if (record == END_OF_FILE) {
+                    if (++done % 100 == 0) {
+                        System.out.println("Read the links of " + done + " files, " + pages + " pages, " + links + " links");
+                    }
+                } else {
+                    writer.write(record);
+                    if (record[8] == PAGE) {
+                        pages++;
+                    } else {
+                        links++;
+                    }
+                }
+            }
+            for (Future<Void> file : reading) {
+                file.get();
+            }
+            CodecUtil.writeFooter(out);
+        } catch (InterruptedException | ExecutionException e){
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            // on an error, the threads may be waiting for room in the queue
+            pool.shutdownNow();
+        }
+        System.out.println("Read " + pages + " pages with " + links + " links");
+        return out.getName();
+    }
+
+    /**
+     * Adds a document to the anchor index for each page with links to it, from the sorted records.
+     */
+    public void joinRecords(Directory dir, String sorted, IndexWriter writer) throws IOException {
+        Field docnumField = new StringField(Lucene4IRConstants.FIELD_DOCNUM, "", Field.Store.YES);
+        Field anchorField = new StoredField(Lucene4IRConstants.FIELD_ANCHOR, "");
+        Field countField = new StoredField(AnchorText.FIELD_COUNT, 0);
+        Document doc = new Document();
+        doc.add(docnumField);
+        doc.add(anchorField);
+        doc.add(countField);
+
+        long key = 0;
+        String docnum = null;
+        int count = 0;
+        StringBuilder anchors = new StringBuilder();
+        long pagesWithAnchors = 0;
+        long joined = 0;
+        try (OfflineSorter.ByteSequencesReader reader = new OfflineSorter.ByteSequencesReader(
+                dir.openChecksumInput(sorted, IOContext.READONCE), sorted)) {
+            BytesRef record;
+            boolean first = true;
+            while (true) {
+                record = reader.next();
+                long recordKey = record == null ? 0 : getLong(record);
+                if (record == null || first || recordKey != key) {
+                    // the end of the records of a url
+                    if (docnum != null && count > 0) {
+                        docnumField.setStringValue(docnum);
+                        anchorField.setStringValue(anchors.toString());
+                        countField.setIntValue(count);
+                        writer.addDocument(doc);
+                        pagesWithAnchors++;
+                        joined += count;
+                    }
+                    if (record == null) {
+                        break;
+                    }
+                    first = false;
+                    key = recordKey;
+                    docnum = null;
+                    count = 0;
+                    anchors.setLength(0);
+                }
+                int type = record.bytes[record.offset + 8];
+                if (type == PAGE) {
+                    // pages with the same url, e.g. but for the query, get the anchors of the first
+                    if (docnum == null) {
+                        docnum = new String(record.bytes, record.offset + 9, record.length - 9, StandardCharsets.UTF_8);
+                    }
+                } else if (docnum != null) {
+                    // the page record sorts before the links to it
+                    if (count < p.maxAnchors) {
+                        if (count > 0) {
+                            anchors.append('\n');
+                        }
+                        anchors.append(new String(record.bytes, record.offset + 13, record.length - 13, StandardCharsets.UTF_8));
+                    }
+                    count++;
+                }
+            }
+        }
+        System.out.println("Anchor text of " + joined + " links to " + pagesWithAnchors + " pages");
+    }
+
+    private static long getLong(BytesRef record){
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (record.bytes[record.offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    public void buildAnchorIndex(List<String> files){
+        try {
+            Path tempPath = Paths.get(p.tempDir);
+            Files.createDirectories(tempPath);
+            Directory tempDir = FSDirectory.open(tempPath);
+            String unsorted = writeRecords(files, tempDir);
+
+            long start = System.currentTimeMillis();
+            OfflineSorter sorter = new OfflineSorter(tempDir, "anchors", OfflineSorter.DEFAULT_COMPARATOR,
+                    OfflineSorter.BufferSize.megabytes(p.sortBufferMB), OfflineSorter.MAX_TEMPFILES, -1);
+            String sorted = sorter.sort(unsorted);
+            tempDir.deleteFile(unsorted);
+            System.out.println("Sorted " + (pages + links) + " records in " + (System.currentTimeMillis() - start) + " ms");
+
+            IndexWriterConfig config = new IndexWriterConfig(Lucene4IRConstants.ANALYZER);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            IndexWriter writer = new IndexWriter(FSDirectory.open(Paths.get(p.anchorIndex)), config);
+            joinRecords(tempDir, sorted, writer);
+            tempDir.deleteFile(sorted);
+            tempDir.close();
+            deleteDirectory(tempPath);
+
+            // one segment, so that each page is looked up once
+            writer.forceMerge(1);
+            writer.close();
+        } catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private void deleteDirectory(Path path) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(path);
+    }
+
+    public AnchorTextApp(String paramFile){
+        System.out.println("Anchor Text App");
+        readParamsFromFile(paramFile);
+    }
+
+    public static void main(String []args) {
+
+        String paramFile = "";
+
+        try {
+            paramFile = args[0];
+        } catch (Exception e) {
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            System.exit(1);
+        }
+
+        AnchorTextApp app = new AnchorTextApp(paramFile);
+        app.buildAnchorIndex(app.readFileList());
+        System.out.println("Done");
+    }
+}
+
+@XmlRootElement(name = "anchorTextParams")
+class AnchorTextParams {
+    public String fileList; /** the WARC files of the collection, one per line **/
+    public String anchorIndex; /** where to build the anchor index **/
+    public Integer threads; /** threads reading the files, default the number of processors **/
+    public Integer maxAnchors; /** the most links a page keeps the text of, default 1000 **/
+    public Integer sortBufferMB; /** memory for sorting the records, default 256 **/
+    public String tempDir; /** directory for the sort files, default anchorIndex_sort **/
+}
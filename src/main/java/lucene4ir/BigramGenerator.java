@@ -1,10 +1,10 @@
 package lucene4ir;
 
+import lucene4ir.utils.StoredText;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
@@ -147,10 +147,10 @@ public class BigramGenerator {
 
         int n = reader.maxDoc();
 
+        StoredText text = new StoredText(reader);
         for (int i = 0; i < n; i++) {
 
-            Document doc = reader.document(i);
-            String all = doc.get(Lucene4IRConstants.FIELD_ALL);
+            String all = text.all(i);
             Analyzer a = new StandardAnalyzer();
             TokenStream ts = a.tokenStream(null, all);
             ts.reset();
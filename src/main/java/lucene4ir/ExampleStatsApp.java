@@ -7,6 +7,7 @@ import java.nio.file.Paths;
 import java.util.*;
 
 import lucene4ir.utils.LanguageModel;
+import lucene4ir.utils.StoredText;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -216,11 +217,12 @@ public class ExampleStatsApp {
 
     public void iterateThroughDocListAll()  throws IOException {
         int n = reader.maxDoc();
+        StoredText text = new StoredText(reader);
         for (int i = 0; i < n; i++) {
             Document doc = reader.document(i);
             // the doc.get pulls out the values stored - ONLY if you store the fields
             String docnum = doc.get("docnum");
-            String all = doc.get(Lucene4IRConstants.FIELD_ALL).trim();
+            String all = text.all(i).trim();
             if (all.length() == 0) {
                 System.out.println("docnum: " + docnum);
             }
@@ -434,11 +436,11 @@ public class ExampleStatsApp {
 
         HashMap<String, Integer> hmap = new HashMap<String, Integer>();
         int n = reader.maxDoc();
+        StoredText text = new StoredText(reader);
 
         for (int i = 0; i < n; i++) {
 
-            Document doc = reader.document(i);
-            String all = doc.get(Lucene4IRConstants.FIELD_ALL);
+            String all = text.all(i);
 
             //String[] words = all.split(" ");
             //for(String w: words ){
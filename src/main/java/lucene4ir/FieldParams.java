@@ -0,0 +1,85 @@
+package lucene4ir;
+
+import org.apache.lucene.index.IndexOptions;
+
+/**
+ * How one field is indexed, from the fields section of the index params xml file.
+ * Any setting that is left out keeps the value the indexer would otherwise give the field.
+ */
+public class FieldParams {
+    public String name;
+    public Boolean stored;
+    public String indexOptions; /** none, docs, freqs, positions or offsets **/
+    public Boolean termVectors; /** with positions and offsets when the index options include them **/
+    public Boolean norms;
+
+    /**
+     * Returns the Lucene IndexOptions named by indexOptions, or null if it is not set.
+     * @throws IllegalArgumentException if it is not one of the names above
+     */
+    public IndexOptions getIndexOptions(){
+        if (indexOptions == null) {
+            return null;
+        }
+        switch (indexOptions.toLowerCase()) {
+            case "none":
+                return IndexOptions.NONE;
+            case "docs":
+                return IndexOptions.DOCS;
+            case "freqs":
+                return IndexOptions.DOCS_AND_FREQS;
+            case "positions":
+                return IndexOptions.DOCS_AND_FREQS_AND_POSITIONS;
+            case "offsets":
+                return IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS;
+            default:
+                throw new IllegalArgumentException("Unknown indexOptions for field " + name + ": " + indexOptions);
+        }
+    }
+
+    /**
+     * Checks that the field is named, its settings are known, and they go together: a field
+     * that is not indexed has to be stored, and cannot have term vectors or norms.
+     * @throws IllegalArgumentException if not
+     */
+    public void validate(){
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("A field in the index params has no name");
+        }
+        if (getIndexOptions() != IndexOptions.NONE) {
+            return;
+        }
+        // "all" is the one field the indexers do not store by default
+        if (Boolean.FALSE.equals(stored) || (stored == null && name.equals(Lucene4IRConstants.FIELD_ALL))) {
+            throw new IllegalArgumentException("Field " + name + " is neither indexed nor stored");
+        }
+        if (Boolean.TRUE.equals(termVectors)) {
+            throw new IllegalArgumentException("Field " + name + " cannot have term vectors, as it is not indexed");
+        }
+        if (Boolean.TRUE.equals(norms)) {
+            throw new IllegalArgumentException("Field " + name + " cannot have norms, as it is not indexed");
+        }
+    }
+
+    /**
+     * Lists the settings that are given, e.g. "title: stored false, norms false".
+     */
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder(String.valueOf(name)).append(':');
+        if (stored != null) {
+            sb.append(" stored ").append(stored).append(',');
+        }
+        if (indexOptions != null) {
+            sb.append(" indexOptions ").append(getIndexOptions()).append(',');
+        }
+        if (termVectors != null) {
+            sb.append(" termVectors ").append(termVectors).append(',');
+        }
+        if (norms != null) {
+            sb.append(" norms ").append(norms).append(',');
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+}
@@ -77,7 +77,7 @@ public class FieldedRetrievalApp extends RetrievalApp {
         }
         try {
             MultiFieldQueryParser mfq = new MultiFieldQueryParser(fields, analyzer, boosts);
-            Query q = mfq.parse(queryTerms);
+            Query q = withPrior(mfq.parse(queryTerms));
             System.out.println(qno+ ": " + q.toString());
             try {
                 TopDocs results = searcher.search(q, p.maxResults);
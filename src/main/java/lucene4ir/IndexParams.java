@@ -0,0 +1,52 @@
+package lucene4ir;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import java.util.List;
+
+/**
+ * Parameters of an index build, read from the index params xml file by IndexerApp.
+ */
+public class IndexParams {
+    public String indexName;
+    public String fileList;
+    public String indexType; /** trecWeb, trecNews, trec678, cacm **/
+    //public Boolean compressed;
+    public String tokenFilterFile;
+    public Boolean recordPositions;
+    public Integer indexThreads; /** number of files indexed at once, default 1 **/
+    public Integer parserThreads; /** number of threads parsing the documents of each file, default 1 **/
+    public Integer queueSize; /** documents read ahead of the parser threads, default 256 **/
+    public Integer shards; /** number of sub-indexes built independently and then merged, default 1 **/
+    public Boolean keepShards; /** keep the sub-indexes after merging them, default false **/
+    public Integer maxSegments; /** if greater than 0, force merge the index down to this many segments **/
+    public String writerProfile; /** default or bulk, see DocumentIndexer.openWriter **/
+    public Double ramBufferMB; /** IndexWriter RAM buffer; by default sized by the writer profile **/
+    public String openMode; /** create (default) replaces any existing index, append adds to it and skips files already indexed **/
+    public Integer checkpointFiles; /** if greater than 0, commit the index after every this many files **/
+    public String dedup; /** skip or flag the exact and near-duplicate pages of TRECWEB and CLUEWEB collections, default off **/
+    public Integer dedupDistance; /** the most SimHash bits a near-duplicate differs in, default 3 **/
+    public String dedupReport; /** file listing each duplicate page and the page it duplicates **/
+    public String anchorIndex; /** anchor text of the pages of a CLUEWEB collection, built by AnchorTextApp **/
+    public String indexSort; /** doc values fields the documents of each segment are sorted by, e.g. docnum, see IndexSort **/
+    public Integer reportInterval; /** seconds between progress reports, default 30, 0 for none **/
+    public String metricsFile; /** file the progress reports are also written to as JSON **/
+    @XmlElementWrapper(name = "fields")
+    @XmlElement(name = "field")
+    public List<FieldParams> fields; /** how particular fields are indexed, see FieldParams **/
+
+    /**
+     * Returns the settings given for the named field, or null if there are none.
+     */
+    public FieldParams getFieldParams(String name){
+        if (fields != null) {
+            for (FieldParams f : fields) {
+                if (name.equals(f.name)) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
+
+}
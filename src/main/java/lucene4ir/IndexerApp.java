@@ -5,12 +5,29 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 import lucene4ir.indexer.*;
+import lucene4ir.utils.IndexStats;
+import lucene4ir.utils.TokenAnalyzerMaker;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.index.*;
 
@@ -26,12 +43,25 @@ public class IndexerApp {
 
     public DocumentIndexer di;
 
+    /** commit user data key listing the files whose documents are in the index **/
+    public static final String COMPLETED_FILES = "completedFiles";
+    /** commit user data key listing the stored fields "all" is made of (see StoredText) **/
+    public static final String ALL_FIELDS = "allFields";
+
+    private final Set<String> completedFiles = new LinkedHashSet<String>();
+    private int filesSinceCheckpoint = 0;
+    // files are indexed under the read lock, a checkpoint commits under the write lock;
+    // fair, so that a waiting checkpoint stops new files from starting
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock(true);
 
     private enum DocumentModel {
         CACM, CLUEWEB, TRECNEWS, TRECAQUAINT, TRECWEB, TRECTIPSTER, PUBMED
     }
 
     private DocumentModel docModel;
+    private List<String> allSources;
+
+    private IndexingReporter reporter;
 
     public IndexerApp(){
         System.out.println("Indexer");
@@ -57,40 +87,37 @@ public class IndexerApp {
         switch(dm){
             case CACM:
                 System.out.println("CACM Document Parser");
-                di = new CACMDocumentIndexer(p.indexName, p.tokenFilterFile, p.recordPositions);
+                di = new CACMDocumentIndexer(p);
                 break;
 
             case CLUEWEB:
                 System.out.println("CLUEWEB Document Parser");
-                // TBA
-                System.out.println("To be Implemented");
-                // di = new CLUEWEBDocumentIndexer(p.indexName);
-                System.exit(1);
+                di = new CLUEWEBDocumentIndexer(p);
                 break;
 
             case TRECNEWS:
                 System.out.println("TRECNEWS");
-                di = new TRECNEWSDocumentIndexer(p.indexName, p.tokenFilterFile, p.recordPositions);
+                di = new TRECNEWSDocumentIndexer(p);
                 break;
 
             case TRECTIPSTER:
                 System.out.println("TRECTIPSTER");
-                di = new TRECTipsterDocumentIndexer(p.indexName, p.tokenFilterFile, p.recordPositions);
+                di = new TRECTipsterDocumentIndexer(p);
                 break;
 
             case TRECAQUAINT:
                 System.out.println("TRECAQUAINT");
-                di = new TRECAquaintDocumentIndexer(p.indexName, p.tokenFilterFile, p.recordPositions);
+                di = new TRECAquaintDocumentIndexer(p);
                 break;
 
             case TRECWEB:
                 System.out.println("TRECWeb");
-                di = new TRECWebDocumentIndexer(p.indexName, p.tokenFilterFile, p.recordPositions);
+                di = new TRECWebDocumentIndexer(p);
                 break;
 
             case PUBMED:
                 System.out.println("PUBMED");
-                di = new PubMedDocumentIndexer(p.indexName, p.tokenFilterFile, p.recordPositions);
+                di = new PubMedDocumentIndexer(p);
                 break;
 
 
@@ -143,11 +170,77 @@ public class IndexerApp {
 
         if(p.recordPositions==null)
             p.recordPositions=false;
+        if(p.indexThreads==null || p.indexThreads < 1)
+            p.indexThreads=1;
+        if(p.parserThreads==null || p.parserThreads < 1)
+            p.parserThreads=1;
+        if(p.queueSize==null || p.queueSize < 1)
+            p.queueSize=256;
+        if(p.shards==null || p.shards < 1)
+            p.shards=1;
+        if(p.keepShards==null)
+            p.keepShards=false;
+        if(p.maxSegments==null)
+            p.maxSegments=0;
+        if(p.writerProfile==null)
+            p.writerProfile="default";
+        if(p.openMode==null)
+            p.openMode="create";
+        if(p.checkpointFiles==null)
+            p.checkpointFiles=0;
+        if(p.dedupDistance==null)
+            p.dedupDistance=3;
+        if(p.indexSort!=null && p.maxSegments==0)
+            p.maxSegments=1;
+        if(p.reportInterval==null || p.reportInterval < 0)
+            p.reportInterval=30;
 
         System.out.println("Index type: " + p.indexType);
         System.out.println("Path to index: " + p.indexName);
         System.out.println("List of files to index: " + p.fileList);
         System.out.println("Record positions in index: " + p.recordPositions);
+        System.out.println("Index threads: " + p.indexThreads);
+        System.out.println("Parser threads: " + p.parserThreads);
+        if (p.parserThreads > 1) {
+            if (p.queueSize > PipelineDocumentIndexer.maxQueueSize(p.parserThreads)) {
+                System.out.println("Queue size " + p.queueSize + " is too large, should be at most "
+                        + PipelineDocumentIndexer.maxQueueSize(p.parserThreads));
+                System.exit(1);
+            }
+            System.out.println("Queue size: " + p.queueSize);
+        }
+        if (p.shards > 1)
+            System.out.println("Shards: " + p.shards);
+        System.out.println("Writer profile: " + p.writerProfile);
+        System.out.println("Open mode: " + p.openMode);
+        if (p.checkpointFiles > 0)
+            System.out.println("Checkpoint every " + p.checkpointFiles + " files");
+        if (p.dedup != null) {
+            if (!p.dedup.equalsIgnoreCase("skip") && !p.dedup.equalsIgnoreCase("flag")) {
+                System.out.println("Unknown dedup: " + p.dedup + ", should be skip or flag");
+                System.exit(1);
+            }
+            System.out.println("Duplicate pages: " + p.dedup.toLowerCase() + " (SimHash distance " + p.dedupDistance + ")");
+        }
+        if (p.anchorIndex != null)
+            System.out.println("Anchor index: " + p.anchorIndex);
+        if (p.indexSort != null)
+            System.out.println("Index sort: " + p.indexSort);
+        if (p.reportInterval > 0)
+            System.out.println("Report progress every " + p.reportInterval + " seconds");
+        if (p.metricsFile != null)
+            System.out.println("Metrics file: " + p.metricsFile);
+        if (p.fields != null) {
+            for (FieldParams f : p.fields) {
+                try {
+                    f.validate();
+                } catch (IllegalArgumentException e){
+                    System.out.println(e.getMessage());
+                    System.exit(1);
+                }
+                System.out.println("Field " + f);
+            }
+        }
 
     }
 
@@ -156,20 +249,280 @@ public class IndexerApp {
         readIndexParamsFromFile(indexParamFile);
         setDocParser(p.indexType);
         selectDocumentParser(docModel);
+        allSources = di.getAllSources();
+        if (p.parserThreads > 1) {
+            di = new PipelineDocumentIndexer(di, p.parserThreads, p.queueSize);
+        }
+        readCompletedFiles();
+    }
+
+    private void readCompletedFiles(){
+        /*
+            When appending to an existing index, its last commit lists the files
+            already indexed, e.g. by a build that was interrupted after a checkpoint.
+         */
+        for (Map.Entry<String, String> entry : di.writer.getLiveCommitData()) {
+            if (entry.getKey().equals(COMPLETED_FILES) && !entry.getValue().isEmpty()) {
+                for (String f : entry.getValue().split("\n")) {
+                    completedFiles.add(f);
+                }
+            }
+        }
+        if (!completedFiles.isEmpty()) {
+            System.out.println("Index already contains the documents of " + completedFiles.size() + " files");
+        }
+    }
+
+    private void setCompletedFilesCommitData(){
+        Map<String, String> data = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : di.writer.getLiveCommitData()) {
+            data.put(entry.getKey(), entry.getValue());
+        }
+        synchronized (completedFiles) {
+            data.put(COMPLETED_FILES, String.join("\n", completedFiles));
+        }
+        if (allSources != null) {
+            data.put(ALL_FIELDS, String.join(",", allSources));
+        } else {
+            data.remove(ALL_FIELDS);
+        }
+        di.writer.setLiveCommitData(data.entrySet());
+    }
+
+    private void indexFile(DocumentIndexer worker, String f){
+        /*
+            Indexes one file and records it as completed, if it was read to the end. Every
+            checkpointFiles files, the index is committed once the files being indexed are
+            done, so that the commit holds exactly the documents of the files listed with it.
+            A file that failed part way is left out of the list. Its documents read before
+            the error cannot be taken out again, so when checkpointing the build stops
+            without committing them, and a build resumed from the last checkpoint reads the
+            file again from the start.
+         */
+        System.out.println("About to Index Files in: " +  f);
+        boolean checkpoint = false;
+        checkpointLock.readLock().lock();
+        try {
+            boolean read = worker.indexDocumentsFromFile(f);
+            di.metrics.fileDone(new File(f).length());
+            if (!read) {
+                System.out.println("Not recording " + f + " as completed, as it was not read to the end");
+                if (p.checkpointFiles > 0) {
+                    System.out.println("Stopping at the last checkpoint, resume with openMode append");
+                    System.exit(1);
+                }
+                return;
+            }
+            synchronized (completedFiles) {
+                completedFiles.add(f);
+                if (p.checkpointFiles > 0 && ++filesSinceCheckpoint >= p.checkpointFiles) {
+                    filesSinceCheckpoint = 0;
+                    checkpoint = true;
+                }
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        if (checkpoint) {
+            checkpoint();
+        }
+    }
+
+    public void checkpoint(){
+        checkpointLock.writeLock().lock();
+        try {
+            setCompletedFilesCommitData();
+            di.writer.commit();
+            System.out.println("Checkpoint: committed the documents of " + completedFiles.size() + " files");
+        } catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    public boolean indexDocumentsFromFile(String filename){
+        return di.indexDocumentsFromFile(filename);
+    }
+
+    public void indexDocumentsFromFiles(List<String> files){
+        /*
+            Indexes each file in the list. With more than one index thread, each thread
+            owns its own DocumentIndexer (sharing the one IndexWriter) and takes the
+            next file from the list until it is empty.
+            Files that are already in the index are skipped.
+         */
+        List<String> remaining = new ArrayList<String>();
+        for (String f : files) {
+            if (!completedFiles.contains(f)) {
+                remaining.add(f);
+            }
+        }
+        if (remaining.size() < files.size()) {
+            System.out.println("Skipping " + (files.size() - remaining.size()) + " files already in the index");
+        }
+        files = remaining;
+
+        long inputBytes = 0;
+        for (String f : files) {
+            inputBytes += new File(f).length();
+        }
+        di.metrics.setInput(files.size(), inputBytes);
+        reporter = new IndexingReporter(di.metrics, p.reportInterval, p.metricsFile);
+
+        if (p.shards > 1) {
+            indexDocumentsIntoShards(files);
+            return;
+        }
+
+        if (p.indexThreads == 1) {
+            for (String f : files) {
+                indexFile(di, f);
+            }
+            return;
+        }
+
+        final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>(files);
+        ExecutorService pool = Executors.newFixedThreadPool(p.indexThreads);
+        List<Future<?>> tasks = new ArrayList<Future<?>>();
+        for (int i = 0; i < p.indexThreads; i++) {
+            final DocumentIndexer worker = (i == 0) ? di : di.newWorker();
+            tasks.add(pool.submit(new Runnable() {
+                public void run() {
+                    String f;
+                    while ((f = queue.poll()) != null) {
+                        indexFile(worker, f);
+                    }
+                }
+            }));
+        }
+        pool.shutdown();
+
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException | ExecutionException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public String shardPath(int shard){
+        return p.indexName + "_shard" + shard;
+    }
+
+    public void indexDocumentsIntoShards(List<String> files){
+        /*
+            Splits the files across p.shards independent indexes, each built on its own
+            thread with its own IndexWriter and directory, so the shards do not compete
+            for one writer's flushes and merges. The shards are then added to the main
+            index with IndexWriter.addIndexes, and removed unless p.keepShards is set.
+            The shards are not checkpointed: the main index only changes once all are built.
+         */
+        List<List<String>> shardFiles = new ArrayList<List<String>>();
+        for (int i = 0; i < p.shards; i++) {
+            shardFiles.add(new ArrayList<String>());
+        }
+        for (int i = 0; i < files.size(); i++) {
+            shardFiles.get(i % p.shards).add(files.get(i));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(p.shards);
+        List<Future<?>> tasks = new ArrayList<Future<?>>();
+        for (int i = 0; i < p.shards; i++) {
+            final DocumentIndexer shard = di.newWorker(di.openWriter(shardPath(i)));
+            final List<String> shardFileList = shardFiles.get(i);
+            tasks.add(pool.submit(new Runnable() {
+                public void run() {
+                    List<String> read = new ArrayList<String>();
+                    for (String f : shardFileList) {
+                        System.out.println("About to Index Files in: " +  f);
+                        if (shard.indexDocumentsFromFile(f)) {
+                            read.add(f);
+                        } else {
+                            System.out.println("Not recording " + f + " as completed, as it was not read to the end");
+                        }
+                        di.metrics.fileDone(new File(f).length());
+                    }
+                    shard.finished();
+                    synchronized (completedFiles) {
+                        completedFiles.addAll(read);
+                    }
+                }
+            }));
+        }
+        pool.shutdown();
+
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+
+            Directory[] shardDirs = new Directory[p.shards];
+            for (int i = 0; i < p.shards; i++) {
+                shardDirs[i] = FSDirectory.open(Paths.get(shardPath(i)));
+            }
+            System.out.println("Merging " + p.shards + " shards into " + p.indexName);
+            di.writer.addIndexes(shardDirs);
+            for (Directory dir : shardDirs) {
+                dir.close();
+            }
+
+            if (!p.keepShards) {
+                for (int i = 0; i < p.shards; i++) {
+                    deleteDirectory(Paths.get(shardPath(i)));
+                }
+            }
+        } catch (InterruptedException | ExecutionException | IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
     }
 
-    public void indexDocumentsFromFile(String filename){
-        di.indexDocumentsFromFile(filename);
+    private void deleteDirectory(Path path) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(path);
     }
 
     public void finished(){
+        setCompletedFilesCommitData();
+        if (p.maxSegments > 0) {
+            try {
+                System.out.println("Merging index down to " + p.maxSegments + " segment(s)");
+                di.writer.forceMerge(p.maxSegments);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
         di.finished();
+        if (reporter != null) {
+            reporter.close();
+        }
+        if (di.duplicates != null) {
+            di.duplicates.finished();
+        }
+        TokenAnalyzerMaker.printCacheStats(di.analyzer);
 
         try {
-            IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(p.indexName)));
+            Directory dir = FSDirectory.open(Paths.get(p.indexName));
+            IndexReader reader = DirectoryReader.open(dir);
             long numDocs = reader.numDocs();
             System.out.println("Number of docs indexed: " + numDocs);
 
+            // collection statistics for the retrieval and QPP apps to load (see IndexStats)
+            IndexStats stats = IndexStats.compute(reader);
+            stats.write(dir);
+            for (IndexStats.FieldStats fs : stats.fields()) {
+                System.out.println("Field statistics " + fs);
+            }
+            reader.close();
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -197,10 +550,7 @@ public class IndexerApp {
 
         try {
             ArrayList<String> files = indexer.readFileListFromFile();
-            for (String f : files) {
-                System.out.println("About to Index Files in: " +  f);
-                indexer.indexDocumentsFromFile(f);
-            }
+            indexer.indexDocumentsFromFiles(files);
         } catch (Exception e){
             e.printStackTrace();
             System.exit(1);
@@ -213,15 +563,3 @@ public class IndexerApp {
     }
 
 }
-
-
-class IndexParams {
-    public String indexName;
-    public String fileList;
-    public String indexType; /** trecWeb, trecNews, trec678, cacm **/
-    //public Boolean compressed;
-    public String tokenFilterFile;
-    public Boolean recordPositions;
-
-}
-
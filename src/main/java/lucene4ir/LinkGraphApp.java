@@ -0,0 +1,448 @@
+package lucene4ir;
+
+import lucene4ir.utils.DocnumLookup;
+import lucene4ir.utils.IndexSort;
+import lucene4ir.utils.IndexStats;
+import lucene4ir.utils.LinkGraph;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import parse.WarcHTMLRecord;
+import parse.WarcReader;
+import parse.WarcRecord;
+
+import javax.xml.bind.JAXB;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes static priors of the pages of a web collection from its links, and adds them to
+ * the index of the collection as numeric doc values: the PageRank of each page, as a float
+ * scaled so that the average page has 1 (field pagerank), and the number of pages in the
+ * collection that link to it (field indegree). RetrievalApp can mix either into the scores
+ * (see its prior and priorWeight parameters).
+ *
+ * The WARC files of the collection (as indexed with indexType CLUEWEB) are read again, on
+ * several threads, for the outlinks of each page (WarcHTMLRecord.getURLOutlinks), from which
+ * a LinkGraph is built. The index is then rewritten with the priors of each document, which
+ * are looked up by docnum once, into one segment, without analysing the documents again.
+ *
+ * With indexSort set, e.g. to "pagerank desc", the documents are written in that order (see
+ * IndexSort), which the IndexerApp cannot do as it does not know the priors.
+ */
+public class LinkGraphApp {
+
+    public LinkGraphParams p;
+
+    private static final String TREC_ID = "WARC-TREC-ID";
+
+    /**
+     * The pages of one WARC file: the keys of their docnums and urls, and of their links.
+     */
+    private static class FilePages {
+        long[] pageKeys = new long[1024];
+        long[] urlKeys = new long[1024];
+        int[] linkEnds = new int[1024];
+        long[] links = new long[16384];
+        int numPages = 0;
+        int numLinks = 0;
+
+        void add(String docnum, String url, List<String> outlinks){
+            if (numPages == pageKeys.length) {
+                pageKeys = Arrays.copyOf(pageKeys, numPages * 2);
+                urlKeys = Arrays.copyOf(urlKeys, numPages * 2);
+                linkEnds = Arrays.copyOf(linkEnds, numPages * 2);
+            }
+            if (numLinks + outlinks.size() > links.length) {
+                links = Arrays.copyOf(links, Math.max(links.length * 2, numLinks + outlinks.size()));
+            }
+            for (String link : outlinks) {
+                links[numLinks++] = LinkGraph.urlKey(link);
+            }
+            pageKeys[numPages] = LinkGraph.key(docnum);
+            urlKeys[numPages] = LinkGraph.urlKey(url);
+            linkEnds[numPages++] = numLinks;
+        }
+
+        void addTo(LinkGraph.Builder graph) throws IOException {
+            long[] pageLinks = new long[0];
+            int start = 0;
+            for (int i = 0; i < numPages; i++) {
+                int n = linkEnds[i] - start;
+                if (pageLinks.length < n) {
+                    pageLinks = new long[n];
+                }
+                System.arraycopy(links, start, pageLinks, 0, n);
+                graph.addPage(pageKeys[i], urlKeys[i], pageLinks, n);
+                start = linkEnds[i];
+            }
+        }
+    }
+
+    public void readParamsFromFile(String paramFile){
+        try {
+            p = JAXB.unmarshal(new File(paramFile), LinkGraphParams.class);
+        } catch (Exception e){
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (p.threads == null || p.threads < 1)
+            p.threads = Runtime.getRuntime().availableProcessors();
+        if (p.damping == null)
+            p.damping = 0.85;
+        if (p.iterations == null)
+            p.iterations = 50;
+        if (p.tolerance == null)
+            p.tolerance = 1e-6;
+        if (p.tempDir == null)
+            p.tempDir = p.indexName + "_links";
+
+        System.out.println("Path to index: " + p.indexName);
+        System.out.println("List of WARC files: " + p.fileList);
+        System.out.println("Threads: " + p.threads);
+        System.out.println("Links kept in: " + p.tempDir);
+        System.out.println("PageRank damping: " + p.damping + ", iterations: " + p.iterations + ", tolerance: " + p.tolerance);
+        if (p.indexSort != null)
+            System.out.println("Index sort: " + p.indexSort);
+    }
+
+    public List<String> readFileList(){
+        List<String> files = new ArrayList<String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(p.fileList))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    files.add(line.trim());
+                }
+            }
+        } catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return files;
+    }
+
+    private static FilePages readPages(String filename) throws IOException {
+        FilePages pages = new FilePages();
+        try (WarcReader warcs = WarcReader.open(filename)) {
+            WarcRecord warc;
+            while ((warc = warcs.next()) != null) {
+                if (!warc.getHeaderRecordType().equalsIgnoreCase("response")) {
+                    continue;
+                }
+                String docnum = warc.getHeaderMetadataItem(TREC_ID);
+                if (docnum == null) {
+                    continue;
+                }
+                WarcHTMLRecord html = new WarcHTMLRecord(warc);
+                String url = html.getTargetURI();
+                pages.add(docnum, url == null ? "" : url, html.getURLOutlinks());
+            }
+        }
+        return pages;
+    }
+
+    public LinkGraph buildGraph(List<String> files){
+        /*
+            The files are read on p.threads threads, but added to the graph in the order
+            of the list, so that the nodes are numbered the same on every run. Only a few
+            files are read ahead of the one being added, to bound the memory they take.
+         */
+        ExecutorService pool = Executors.newFixedThreadPool(p.threads);
+        ArrayDeque<Future<FilePages>> reading = new ArrayDeque<Future<FilePages>>();
+        int next = 0;
+        LinkGraph g = null;
+        try {
+            Path tempPath = Paths.get(p.tempDir);
+            Files.createDirectories(tempPath);
+            Directory tempDir = FSDirectory.open(tempPath);
+            LinkGraph.Builder graph = new LinkGraph.Builder(tempDir);
+            while (next < files.size() || !reading.isEmpty()) {
+                while (next < files.size() && reading.size() < 2 * p.threads) {
+                    final String f = files.get(next++);
+                    reading.add(pool.submit(new Callable<FilePages>() {
+                        public FilePages call() throws IOException {
+                            return readPages(f);
+                        }
+                    }));
+                }
+                reading.poll().get().addTo(graph);
+                if ((next - reading.size()) % 100 == 0) {
+                    System.out.println("Read the links of " + (next - reading.size()) + " files, " + graph.numPages() + " pages");
+                }
+            }
+
+            System.out.println("Building the link graph of " + graph.numPages() + " pages");
+            g = graph.build();
+            tempDir.close();
+            try (DirectoryStream<Path> leftOver = Files.newDirectoryStream(tempPath)) {
+                for (Path file : leftOver) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(tempPath);
+        } catch (IOException | InterruptedException | ExecutionException e){
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("Link graph: " + g.numNodes() + " pages, " + g.numLinks() + " links between them");
+        return g;
+    }
+
+    /**
+     * Returns the order to write the index in with the priors: indexSort if it is set, or
+     * else the order the index is already sorted in, if it is, as a prior it is sorted by
+     * would otherwise leave it out of order. Returns null if it need not be sorted.
+     */
+    public Sort sortAfterPriors(){
+        if (p.indexSort != null) {
+            return IndexSort.parse(p.indexSort);
+        }
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(p.indexName)))) {
+            for (LeafReaderContext leaf : reader.leaves()) {
+                if (leaf.reader().getIndexSort() != null) {
+                    return leaf.reader().getIndexSort();
+                }
+            }
+        } catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void writePriors(LinkGraph graph, double[] pageRank, Sort sort){
+        /*
+            The priors of each document are looked up by its docnum, and each segment of the
+            index is given them as doc values fields, in place of any priors it already has.
+            The segments are added to a new index, with the sort if there is one, which merges
+            them into one segment, and the new index then takes the place of the old one. The
+            segments are added as if they were not sorted, as the new index would not take
+            segments sorted another way. The commit user data (e.g. the files indexed) and the
+            collection statistics are carried over.
+         */
+        Path indexPath = Paths.get(p.indexName);
+        Path priorsPath = Paths.get(p.indexName + "_priors");
+        Path previousPath = Paths.get(p.indexName + "_previous");
+        try {
+            Directory dir = FSDirectory.open(indexPath);
+            DirectoryReader reader = DirectoryReader.open(dir);
+            long generation = reader.getIndexCommit().getGeneration();
+
+            // pages not in the WARC files, e.g. indexed from other files, have no links
+            float noLinks = (float) (1 - p.damping);
+            float[] pageRanks = new float[reader.maxDoc()];
+            int[] inDegrees = new int[reader.maxDoc()];
+            Arrays.fill(pageRanks, noLinks);
+            DocnumLookup docnums = new DocnumLookup(reader);
+            long found = 0;
+            long missing = 0;
+            for (LeafReaderContext leaf : reader.leaves()) {
+                Bits live = leaf.reader().getLiveDocs();
+                for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                    if (live != null && !live.get(doc)) {
+                        continue;
+                    }
+                    String docnum = docnums.get(leaf.docBase + doc);
+                    int node = docnum == null ? -1 : graph.node(LinkGraph.key(docnum));
+                    if (node >= 0) {
+                        pageRanks[leaf.docBase + doc] = (float) pageRank[node];
+                        inDegrees[leaf.docBase + doc] = graph.inDegree(node);
+                        found++;
+                    } else {
+                        missing++;
+                    }
+                }
+            }
+
+            CodecReader[] segments = new CodecReader[reader.leaves().size()];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = SlowCodecReaderWrapper.wrap(new PriorsReader(reader.leaves().get(i), pageRanks, inDegrees));
+            }
+
+            IndexWriterConfig config = new IndexWriterConfig(Lucene4IRConstants.ANALYZER);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            if (sort != null) {
+                System.out.println("Sorting the index by " + sort);
+                config.setIndexSort(sort);
+            }
+            Directory priorsDir = FSDirectory.open(priorsPath);
+            IndexWriter writer = new IndexWriter(priorsDir, config);
+            writer.addIndexes(segments);
+            writer.setLiveCommitData(reader.getIndexCommit().getUserData().entrySet());
+            writer.commit();
+            writer.close();
+            reader.close();
+            System.out.println("Priors written for " + found + " documents, " + missing + " documents are not in the link graph");
+
+            // the collection statistics have not changed
+            DirectoryReader written = DirectoryReader.open(priorsDir);
+            long writtenGeneration = written.getIndexCommit().getGeneration();
+            written.close();
+            if (Files.exists(indexPath.resolve(IndexStats.FILE_NAME))) {
+                Files.copy(indexPath.resolve(IndexStats.FILE_NAME), priorsPath.resolve(IndexStats.FILE_NAME));
+                IndexStats.updateGeneration(priorsDir, generation, writtenGeneration);
+            }
+            priorsDir.close();
+            dir.close();
+
+            Files.move(indexPath, previousPath);
+            Files.move(priorsPath, indexPath);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(previousPath)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(previousPath);
+        } catch (IOException | IllegalArgumentException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A segment with the priors of its documents as the doc values fields pagerank and
+     * indegree, in place of any it already has.
+     */
+    private static class PriorsReader extends FilterLeafReader {
+
+        private final float[] pageRanks;
+        private final int[] inDegrees;
+        private final int docBase;
+        private final FieldInfos fieldInfos;
+
+        PriorsReader(LeafReaderContext leaf, float[] pageRanks, int[] inDegrees){
+            super(leaf.reader());
+            this.pageRanks = pageRanks;
+            this.inDegrees = inDegrees;
+            this.docBase = leaf.docBase;
+            List<FieldInfo> infos = new ArrayList<FieldInfo>();
+            int number = 0;
+            for (FieldInfo info : in.getFieldInfos()) {
+                if (!isPrior(info.name)) {
+                    infos.add(info);
+                }
+                number = Math.max(number, info.number + 1);
+            }
+            infos.add(new FieldInfo(Lucene4IRConstants.FIELD_PAGERANK, number, false, true, false, IndexOptions.NONE,
+                    DocValuesType.NUMERIC, -1, new HashMap<String, String>(), 0, 0));
+            infos.add(new FieldInfo(Lucene4IRConstants.FIELD_INDEGREE, number + 1, false, true, false, IndexOptions.NONE,
+                    DocValuesType.NUMERIC, -1, new HashMap<String, String>(), 0, 0));
+            fieldInfos = new FieldInfos(infos.toArray(new FieldInfo[infos.size()]));
+        }
+
+        private static boolean isPrior(String field){
+            return field.equals(Lucene4IRConstants.FIELD_PAGERANK) || field.equals(Lucene4IRConstants.FIELD_INDEGREE);
+        }
+
+        @Override
+        public FieldInfos getFieldInfos(){
+            return fieldInfos;
+        }
+
+        @Override
+        public NumericDocValues getNumericDocValues(String field) throws IOException {
+            if (field.equals(Lucene4IRConstants.FIELD_PAGERANK)) {
+                return new NumericDocValues() {
+                    @Override
+                    public long get(int docID){
+                        // as FloatDocValuesField stores it
+                        return Float.floatToRawIntBits(pageRanks[docBase + docID]);
+                    }
+                };
+            }
+            if (field.equals(Lucene4IRConstants.FIELD_INDEGREE)) {
+                return new NumericDocValues() {
+                    @Override
+                    public long get(int docID){
+                        return inDegrees[docBase + docID];
+                    }
+                };
+            }
+            return in.getNumericDocValues(field);
+        }
+
+        @Override
+        public Bits getDocsWithField(String field) throws IOException {
+            if (isPrior(field)) {
+                return new Bits.MatchAllBits(maxDoc());
+            }
+            return in.getDocsWithField(field);
+        }
+
+        @Override
+        public Sort getIndexSort(){
+            return null;
+        }
+    }
+
+    public LinkGraphApp(String paramFile){
+        System.out.println("Link Graph App");
+        readParamsFromFile(paramFile);
+    }
+
+    public static void main(String []args) {
+
+        String paramFile = "";
+
+        try {
+            paramFile = args[0];
+        } catch (Exception e) {
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            System.exit(1);
+        }
+
+        LinkGraphApp app = new LinkGraphApp(paramFile);
+        LinkGraph graph = app.buildGraph(app.readFileList());
+        double[] pageRank = graph.pageRank(app.p.damping, app.p.iterations, app.p.tolerance, app.p.threads);
+        app.writePriors(graph, pageRank, app.sortAfterPriors());
+        System.out.println("Done");
+    }
+}
+
+@XmlRootElement(name = "linkGraphParams")
+class LinkGraphParams {
+    public String indexName;
+    public String fileList; /** the WARC files of the collection, one per line **/
+    public Integer threads; /** threads reading the files and computing PageRank, default the number of processors **/
+    public Double damping; /** the PageRank damping factor, default 0.85 **/
+    public Integer iterations; /** the most PageRank iterations, default 50 **/
+    public Double tolerance; /** PageRank stops once the ranks change by less than this in total, default 1e-6 **/
+    public String tempDir; /** directory for the links while the graph is built, default indexName_links **/
+    public String indexSort; /** if set, e.g. to "pagerank desc", the index is written in this order (see IndexSort) **/
+}
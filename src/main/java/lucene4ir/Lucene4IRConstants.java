@@ -18,5 +18,10 @@ public class Lucene4IRConstants {
     public static final String FIELD_PUBDATE = "pubdate";
     public static final String FIELD_SOURCE = "source";
     public static final String FIELD_ALL = "all";
+    public static final String FIELD_DUPLICATE_OF = "duplicateOf";
+    public static final String FIELD_PAGERANK = "pagerank";
+    public static final String FIELD_INDEGREE = "indegree";
+    public static final String FIELD_ANCHOR = "anchor";
+    public static final String FIELD_BP_ORDER = "bporder";
 
 }
@@ -1,6 +1,6 @@
 package lucene4ir;
 
-import org.apache.lucene.document.Document;
+import lucene4ir.utils.DocnumLookup;
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
@@ -43,10 +43,10 @@ public class OutputDocids {
         FileOutputStream fos = new FileOutputStream(fout);
 
         BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos));
+        DocnumLookup docnums = new DocnumLookup(reader);
         for (int i = 0; i < n; i++) {
-            Document doc = reader.document(i);
-            if (doc != null) {
-                String docno = doc.get("docnum");
+            String docno = docnums.get(i);
+            if (docno != null) {
                 bw.write(docno);
                 bw.newLine();
             }
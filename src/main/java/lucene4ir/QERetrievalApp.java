@@ -1,6 +1,6 @@
 package lucene4ir;
 
-import org.apache.lucene.document.Document;
+import lucene4ir.utils.IndexStats;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
@@ -38,9 +38,6 @@ public class QERetrievalApp extends RetrievalApp{
     protected int feedbackTerms;
     protected long doc_count;
 
-    private HashMap<Integer, String> id2num = new HashMap<Integer, String>();
-    private HashMap<String, Integer> num2id = new HashMap<String, Integer>();
-
     /**
      * Instantiates the QERetrievalApp, setting up RetrievalApp from the retrievalParamFile
      * @param retrievalParamFile
@@ -49,7 +46,6 @@ public class QERetrievalApp extends RetrievalApp{
         super(retrievalParamFile);
         System.out.println("Query Expansion");
         this.readQEParamsFromFile(qeFile);
-        mapDocid();
 
         try {
             reader = DirectoryReader.open(FSDirectory.open( new File(p.indexName).toPath()) );
@@ -59,8 +55,7 @@ public class QERetrievalApp extends RetrievalApp{
             selectSimilarityFunction(sim);
             searcher.setSimilarity(simfn);
 //            parser = new QueryParser("content", analyzer);
-            CollectionStatistics collectionStats = searcher.collectionStatistics(Lucene4IRConstants.FIELD_ALL);
-            doc_count = collectionStats.docCount();
+            doc_count = IndexStats.load(reader).get(Lucene4IRConstants.FIELD_ALL).docCount;
         } catch (Exception e){
             System.out.println(" caught a " + e.getClass() +
                     "\n with message: " + e.getMessage());
@@ -81,7 +76,7 @@ public class QERetrievalApp extends RetrievalApp{
         try {
             Query query = parser.parse(QueryParser.escape(queryTerms));
             try {
-                TopDocs results = searcher.search(query, p.maxResults);
+                TopDocs results = searcher.search(withPrior(query), p.maxResults);
                 hits = results.scoreDocs;
 
                 Vector<Terms> terms = getDocsTerms(getDocs(queryTerms,hits));
@@ -120,7 +115,7 @@ public class QERetrievalApp extends RetrievalApp{
                     bqb.add(nbc);
                     BooleanQuery q = bqb.build();
                     System.out.println("ExpandedQuery: " + q.toString());
-                    results = searcher.search(q, p.maxResults);
+                    results = searcher.search(withPrior(q), p.maxResults);
                     hits = results.scoreDocs;
                 }
             }
@@ -144,38 +139,31 @@ public class QERetrievalApp extends RetrievalApp{
      *
      * @param query - for which expansion is being performed
      * @param hits - list of scored documents
-     * @return number of docs indicated by <code>QueryExpansion.feedbackDocs</code>
-     * @throws IOException
+     * @return the Lucene docids of the first <code>QueryExpansion.feedbackDocs</code> hits
      */
-    private Vector<Document> getDocs( String query, ScoreDoc[] hits ) throws IOException {
-        Vector<Document> vHits = new Vector<Document>();
+    private int[] getDocs( String query, ScoreDoc[] hits ) {
         // Extract only as many docs as necessary
         int n = Math.min(feedbackDocs, hits.length);
-        // Convert Hits -> Vector
+        int[] docids = new int[n];
         for(int i=0; i<n; i++){
-            Document doc = searcher.doc(hits[i].doc);
-            String docno = doc.get("docnum");
-//            System.out.println(docno);
-            vHits.add(doc);
+            docids[i] = hits[i].doc;
         }
-        return vHits;
+        return docids;
     }
 
     /**
      * Extracts terms of the documents; Adds them to vector in the same order
      *
-     * @param hits - from which to extract terms
+     * @param docids - the Lucene docids of the documents from which to extract terms
      *
      * @return docsTerms docs must be in order
      */
-    public Vector<Terms> getDocsTerms( Vector<Document> hits)
+    public Vector<Terms> getDocsTerms( int[] docids)
             throws IOException, ParseException {
         Vector<Terms> docsTerms = new Vector<>();
 
         // Process each of the documents
-        for ( int i = 0; i < hits.size(); i++ ) {
-            Document doc = hits.elementAt( i );
-            int docid = num2id.get(doc.get("docnum"));
+        for ( int docid : docids ) {
             Terms t = reader.getTermVector(docid, "all");
             docsTerms.add(t);
         }
@@ -234,28 +222,6 @@ public class QERetrievalApp extends RetrievalApp{
         return rankedTerms;
     }
 
-    /**
-     * A helper method to convert document names to lucene docids
-     */
-    public void  mapDocid() {
-        try {
-            int n = reader.maxDoc();
-
-            for (int i = 0; i < n; i++) {
-                Document doc = reader.document(i);
-
-                // the doc.get pulls out the values stored - ONLY if you store the fields
-                String docno = doc.get("docnum");
-                id2num.put(i, docno);
-                num2id.put(docno, i);
-            }
-        } catch (Exception e){
-            System.out.println(" caught a " + e.getClass() +
-                "\n with message: " + e.getMessage());
-        }
-    }
-
-
     /**
      * Reads the additional parameters required for expansion.
      * noDocs, noTerms and additional alphas.
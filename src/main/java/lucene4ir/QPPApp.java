@@ -4,6 +4,7 @@ import lucene4ir.predictor.PostQPPredictor;
 import lucene4ir.predictor.PreQPPredictor;
 import lucene4ir.predictor.QPPredictor;
 import lucene4ir.utils.DocMap;
+import lucene4ir.utils.DocnumLookup;
 import lucene4ir.utils.TokenAnalyzerMaker;
 import lucene4ir.utils.trec.TrecRuns;
 import org.apache.lucene.analysis.Analyzer;
@@ -176,8 +177,9 @@ public class QPPApp {
             parser = new QueryParser("content", analyzer);
 
             // [[WARNING: JANK]] Create a mapping of docnum->docid.
+            DocnumLookup docnums = new DocnumLookup(reader);
             for (int i = 0; i < reader.numDocs(); i++) {
-                String docNum = reader.document(i).getField(Lucene4IRConstants.FIELD_DOCNUM).stringValue();
+                String docNum = docnums.get(i);
                 DocMap.getInstance().add(docNum, i);
             }
 
@@ -0,0 +1,449 @@
+package lucene4ir;
+
+import lucene4ir.utils.GraphBisection;
+import lucene4ir.utils.IndexStats;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.util.Bits;
+
+import javax.xml.bind.JAXB;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Rewrites an index with its documents in an order that makes its postings smaller and
+ * faster to read: documents that share terms are given docids close together, found by
+ * recursive graph bisection of the graph between the documents and the terms of the given
+ * fields (see GraphBisection). Terms in fewer than minDocFreq documents, or in more than
+ * maxDocFreq of them, are left out, as where they fall makes little difference.
+ *
+ * The new order is written to each document as the numeric doc values field bporder, and
+ * the index is copied to outputName, sorted by it, so both can be compared. The commit user
+ * data and the collection statistics are carried over. The sizes of the two indexes are
+ * reported, and with retrievalParams set, the time the queries of those RetrievalApp params
+ * take on each.
+ */
+public class ReorderApp {
+
+    public ReorderParams p;
+
+    public void readParamsFromFile(String paramFile){
+        try {
+            p = JAXB.unmarshal(new File(paramFile), ReorderParams.class);
+        } catch (Exception e){
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (p.outputName == null)
+            p.outputName = p.indexName + "_bp";
+        if (p.fields == null)
+            p.fields = Lucene4IRConstants.FIELD_ALL;
+        if (p.minDocFreq == null)
+            p.minDocFreq = 2;
+        if (p.maxDocFreq == null)
+            p.maxDocFreq = 1.0;
+        if (p.minPartitionSize == null)
+            p.minPartitionSize = 32;
+        if (p.iterations == null)
+            p.iterations = 20;
+        if (p.threads == null || p.threads < 1)
+            p.threads = Runtime.getRuntime().availableProcessors();
+        if (p.queryRepeats == null || p.queryRepeats < 1)
+            p.queryRepeats = 5;
+
+        System.out.println("Path to index: " + p.indexName);
+        System.out.println("Path to reordered index: " + p.outputName);
+        System.out.println("Fields: " + p.fields);
+        System.out.println("Terms in at least " + p.minDocFreq + " and at most " + p.maxDocFreq + " of the documents");
+        System.out.println("Min partition size: " + p.minPartitionSize + ", iterations: " + p.iterations);
+        System.out.println("Threads: " + p.threads);
+        if (p.retrievalParams != null)
+            System.out.println("Retrieval params: " + p.retrievalParams + " (" + p.queryRepeats + " runs)");
+    }
+
+    /**
+     * Returns the new position of each document of the index, by docid. Deleted documents
+     * come last, as they are dropped when the index is rewritten.
+     */
+    public long[] reorder(){
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(p.indexName)))) {
+            int maxDoc = reader.maxDoc();
+            Bits live = MultiFields.getLiveDocs(reader);
+            if (live == null) {
+                live = new Bits.MatchAllBits(maxDoc);
+            }
+            long maxFreq = (long) Math.floor(p.maxDocFreq * reader.numDocs());
+
+            /*
+                The forward index is built from the postings in two passes: the first counts
+                the terms of each document, the second puts them in place. Each term of each
+                field gets its own id.
+             */
+            int[] offsets = new int[maxDoc + 1];
+            int numTerms = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                int[] terms = pass == 0 ? null : new int[offsets[maxDoc]];
+                int[] next = pass == 0 ? null : offsets.clone();
+                int termId = 0;
+                for (String field : p.fields.split(",")) {
+                    Terms fieldTerms = MultiFields.getTerms(reader, field.trim());
+                    if (fieldTerms == null) {
+                        if (pass == 0)
+                            System.out.println("The index has no field " + field.trim());
+                        continue;
+                    }
+                    TermsEnum te = fieldTerms.iterator();
+                    PostingsEnum postings = null;
+                    while (te.next() != null) {
+                        if (te.docFreq() < p.minDocFreq || te.docFreq() > maxFreq) {
+                            continue;
+                        }
+                        postings = te.postings(postings, PostingsEnum.NONE);
+                        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                            if (!live.get(doc)) {
+                                continue;
+                            }
+                            if (pass == 0) {
+                                offsets[doc + 1]++;
+                            } else {
+                                terms[next[doc]++] = termId;
+                            }
+                        }
+                        termId++;
+                    }
+                }
+                if (pass == 0) {
+                    long total = 0;
+                    for (int doc = 1; doc <= maxDoc; doc++) {
+                        total += offsets[doc];
+                        if (total > Integer.MAX_VALUE) {
+                            System.out.println("Too many postings to reorder, raise minDocFreq or lower maxDocFreq");
+                            System.exit(1);
+                        }
+                        offsets[doc] = (int) total;
+                    }
+                    numTerms = termId;
+                    System.out.println("Forward index: " + numTerms + " terms, " + total + " postings");
+                } else {
+                    return bisect(offsets, terms, numTerms, live, reader.numDocs());
+                }
+            }
+        } catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null;
+    }
+
+    private long[] bisect(int[] offsets, int[] terms, int numTerms, Bits live, int numDocs){
+        int maxDoc = offsets.length - 1;
+        int[] docs = new int[numDocs];
+        int n = 0;
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (live.get(doc)) {
+                docs[n++] = doc;
+            }
+        }
+
+        GraphBisection bisection = new GraphBisection(offsets, terms, numTerms, p.minPartitionSize, p.iterations);
+        double before = bisection.averageLogGap(docs);
+        long start = System.currentTimeMillis();
+        bisection.reorder(docs, p.threads);
+        System.out.println("Reordered " + docs.length + " documents in " + (System.currentTimeMillis() - start) / 1000.0 + " secs");
+        System.out.println(String.format("Average log2 of the docid gaps: %.3f before, %.3f after", before, bisection.averageLogGap(docs)));
+
+        long[] order = new long[maxDoc];
+        for (int doc = 0; doc < maxDoc; doc++) {
+            order[doc] = maxDoc;
+        }
+        for (int i = 0; i < docs.length; i++) {
+            order[docs[i]] = i;
+        }
+        return order;
+    }
+
+    public void writeIndex(final long[] order){
+        /*
+            Each segment is given the order as an extra doc values field, and added to a new
+            index sorted by it, which sorts the documents as it merges the segments into one.
+            The segments are added as if they were not sorted, as the new index would not take
+            segments sorted another way.
+         */
+        Path indexPath = Paths.get(p.indexName);
+        Path outputPath = Paths.get(p.outputName);
+        try {
+            Directory dir = FSDirectory.open(indexPath);
+            DirectoryReader reader = DirectoryReader.open(dir);
+            long generation = reader.getIndexCommit().getGeneration();
+
+            CodecReader[] segments = new CodecReader[reader.leaves().size()];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = SlowCodecReaderWrapper.wrap(new OrderedReader(reader.leaves().get(i), order));
+            }
+
+            IndexWriterConfig config = new IndexWriterConfig(Lucene4IRConstants.ANALYZER);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            config.setIndexSort(new Sort(new SortField(Lucene4IRConstants.FIELD_BP_ORDER, SortField.Type.LONG)));
+            Directory outputDir = FSDirectory.open(outputPath);
+            IndexWriter writer = new IndexWriter(outputDir, config);
+            writer.addIndexes(segments);
+            writer.setLiveCommitData(reader.getIndexCommit().getUserData().entrySet());
+            writer.commit();
+            writer.close();
+            reader.close();
+
+            DirectoryReader reordered = DirectoryReader.open(outputDir);
+            long outputGeneration = reordered.getIndexCommit().getGeneration();
+            System.out.println("Wrote " + reordered.numDocs() + " documents to " + p.outputName);
+            reordered.close();
+            if (Files.exists(indexPath.resolve(IndexStats.FILE_NAME))) {
+                Files.copy(indexPath.resolve(IndexStats.FILE_NAME), outputPath.resolve(IndexStats.FILE_NAME));
+                IndexStats.updateGeneration(outputDir, generation, outputGeneration);
+            }
+            outputDir.close();
+            dir.close();
+        } catch (IOException | IllegalArgumentException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A segment with the new positions of its documents as the doc values field bporder,
+     * in place of any order it already has.
+     */
+    private static class OrderedReader extends FilterLeafReader {
+
+        private final long[] order;
+        private final int docBase;
+        private final FieldInfos fieldInfos;
+
+        OrderedReader(LeafReaderContext leaf, long[] order){
+            super(leaf.reader());
+            this.order = order;
+            this.docBase = leaf.docBase;
+            List<FieldInfo> infos = new ArrayList<FieldInfo>();
+            int number = 0;
+            for (FieldInfo info : in.getFieldInfos()) {
+                if (!info.name.equals(Lucene4IRConstants.FIELD_BP_ORDER)) {
+                    infos.add(info);
+                }
+                number = Math.max(number, info.number + 1);
+            }
+            infos.add(new FieldInfo(Lucene4IRConstants.FIELD_BP_ORDER, number, false, true, false, IndexOptions.NONE,
+                    DocValuesType.NUMERIC, -1, new HashMap<String, String>(), 0, 0));
+            fieldInfos = new FieldInfos(infos.toArray(new FieldInfo[infos.size()]));
+        }
+
+        @Override
+        public FieldInfos getFieldInfos(){
+            return fieldInfos;
+        }
+
+        @Override
+        public NumericDocValues getNumericDocValues(String field) throws IOException {
+            if (!field.equals(Lucene4IRConstants.FIELD_BP_ORDER)) {
+                return in.getNumericDocValues(field);
+            }
+            return new NumericDocValues() {
+                @Override
+                public long get(int docID){
+                    return order[docBase + docID];
+                }
+            };
+        }
+
+        @Override
+        public Bits getDocsWithField(String field) throws IOException {
+            if (!field.equals(Lucene4IRConstants.FIELD_BP_ORDER)) {
+                return in.getDocsWithField(field);
+            }
+            return new Bits.MatchAllBits(maxDoc());
+        }
+
+        @Override
+        public Sort getIndexSort(){
+            return null;
+        }
+    }
+
+    /**
+     * Prints the size of each index, in all and of its postings (the doc, pos and pay files,
+     * also inside compound files).
+     */
+    public void reportSizes(){
+        try {
+            long[] before = sizes(Paths.get(p.indexName));
+            long[] after = sizes(Paths.get(p.outputName));
+            System.out.println(String.format("Index size: %d bytes before, %d bytes after (%+.1f%%)",
+                    before[0], after[0], change(before[0], after[0])));
+            System.out.println(String.format("Postings size: %d bytes before, %d bytes after (%+.1f%%)",
+                    before[1], after[1], change(before[1], after[1])));
+        } catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static long[] sizes(Path path) throws IOException {
+        long[] sizes = new long[2];
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+            for (Path file : files) {
+                sizes[0] += Files.size(file);
+            }
+        }
+        try (Directory dir = FSDirectory.open(path)) {
+            for (SegmentCommitInfo segment : SegmentInfos.readLatestCommit(dir)) {
+                Directory segmentDir = dir;
+                if (segment.info.getUseCompoundFile()) {
+                    segmentDir = segment.info.getCodec().compoundFormat().getCompoundReader(dir, segment.info, IOContext.READ);
+                }
+                for (String name : segmentDir.listAll()) {
+                    if (name.startsWith(segment.info.name + "_")
+                            && (name.endsWith(".doc") || name.endsWith(".pos") || name.endsWith(".pay"))) {
+                        sizes[1] += segmentDir.fileLength(name);
+                    }
+                }
+                if (segmentDir != dir) {
+                    segmentDir.close();
+                }
+            }
+        }
+        return sizes;
+    }
+
+    private static double change(long before, long after){
+        return before == 0 ? 0 : 100.0 * (after - before) / before;
+    }
+
+    /**
+     * Prints how long the queries of the retrieval params take on each index, on average
+     * per query. The indexes take turns, so that both gain from the JIT compiler warming up,
+     * and the first run of each is left out.
+     */
+    public void reportQueryTimes(){
+        try {
+            RetrievalApp before = retriever(p.indexName);
+            RetrievalApp after = retriever(p.outputName);
+            List<String> queries = new ArrayList<String>();
+            try (BufferedReader br = new BufferedReader(new FileReader(before.p.queryFile))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space > 0) {
+                        queries.add(line.substring(space + 1).trim());
+                    }
+                }
+            }
+
+            long beforeNanos = 0;
+            long afterNanos = 0;
+            for (int run = 0; run <= p.queryRepeats; run++) {
+                long b = runQueries(before, queries);
+                long a = runQueries(after, queries);
+                if (run > 0) {
+                    beforeNanos += b;
+                    afterNanos += a;
+                }
+            }
+            before.reader.close();
+            after.reader.close();
+
+            double runs = (double) p.queryRepeats * Math.max(1, queries.size()) * 1e6;
+            System.out.println(String.format("Query time of %d queries: %.3f ms before, %.3f ms after (%+.1f%%)",
+                    queries.size(), beforeNanos / runs, afterNanos / runs, change(beforeNanos, afterNanos)));
+        } catch (IOException | ParseException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private RetrievalApp retriever(String indexName){
+        return new RetrievalApp(p.retrievalParams, indexName);
+    }
+
+    private static long runQueries(RetrievalApp retriever, List<String> queries) throws IOException, ParseException {
+        long start = System.nanoTime();
+        for (String query : queries) {
+            retriever.searcher.search(retriever.withPrior(retriever.parser.parse(QueryParser.escape(query))),
+                    retriever.p.maxResults);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public ReorderApp(String paramFile){
+        System.out.println("Reorder App");
+        readParamsFromFile(paramFile);
+    }
+
+    public static void main(String []args) {
+
+        String paramFile = "";
+
+        try {
+            paramFile = args[0];
+        } catch (Exception e) {
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            System.exit(1);
+        }
+
+        ReorderApp app = new ReorderApp(paramFile);
+        app.writeIndex(app.reorder());
+        app.reportSizes();
+        if (app.p.retrievalParams != null) {
+            app.reportQueryTimes();
+        }
+        System.out.println("Done");
+    }
+}
+
+@XmlRootElement(name = "reorderParams")
+class ReorderParams {
+    public String indexName;
+    public String outputName; /** the reordered index is written here, default indexName_bp **/
+    public String fields; /** the fields whose terms the documents are grouped by, comma separated, default all **/
+    public Integer minDocFreq; /** terms in fewer documents are left out, default 2 **/
+    public Double maxDocFreq; /** terms in more than this fraction of the documents are left out, default 1 **/
+    public Integer minPartitionSize; /** partitions are not split below twice this many documents, default 32 **/
+    public Integer iterations; /** the most rounds of swaps between two halves, default 20 **/
+    public Integer threads; /** default the number of processors **/
+    public String retrievalParams; /** if set, the queries of these RetrievalApp params are timed on both indexes **/
+    public Integer queryRepeats; /** how many times the queries are timed, after a first run, default 5 **/
+}
@@ -1,7 +1,8 @@
 package lucene4ir;
 
+import lucene4ir.utils.DocnumLookup;
+import lucene4ir.utils.PriorQuery;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -21,7 +22,6 @@ import lucene4ir.similarity.BM25Similarity;
 import lucene4ir.utils.TokenAnalyzerMaker;
 
 import javax.xml.bind.JAXB;
-import javax.xml.bind.annotation.XmlRootElement;
 import java.io.*;
 
 import static lucene4ir.RetrievalApp.SimModel.BM25;
@@ -176,6 +176,10 @@ public class RetrievalApp {
         if (p.qeFile!=null){
             System.out.println("QE File: " + p.qeFile);
         }
+        if (p.prior != null){
+            if (p.priorWeight == 0.0){p.priorWeight = 1.0f;}
+            System.out.println("Prior: " + p.prior + " (weight " + p.priorWeight + ")");
+        }
 
         if (p.tokenFilterFile != null){
             TokenAnalyzerMaker tam = new TokenAnalyzerMaker();
@@ -200,6 +204,7 @@ public class RetrievalApp {
             BufferedReader br = new BufferedReader(new FileReader(p.queryFile));
             File file = new File(p.resultFile);
             FileWriter fw = new FileWriter(file);
+            DocnumLookup docnums = new DocnumLookup(reader);
 
             try {
                 String line = br.readLine();
@@ -216,8 +221,7 @@ public class RetrievalApp {
                     int n = Math.min(p.maxResults, scored.length);
 
                     for(int i=0; i<n; i++){
-                        Document doc = searcher.doc(scored[i].doc);
-                        String docno = doc.get("docnum");
+                        String docno = docnums.get(scored[i].doc);
                         fw.write(qno + " QO " + docno + " " + (i+1) + " " + scored[i].score + " " + p.runTag);
                         fw.write(System.lineSeparator());
                     }
@@ -238,7 +242,7 @@ public class RetrievalApp {
 
         System.out.println("Query No.: " + qno + " " + queryTerms);
         try {
-            Query query = parser.parse(QueryParser.escape(queryTerms));
+            Query query = withPrior(parser.parse(QueryParser.escape(queryTerms)));
 
             try {
                 TopDocs results = searcher.search(query, p.maxResults);
@@ -255,10 +259,38 @@ public class RetrievalApp {
         return hits;
     }
 
+    /**
+     * Adds the prior named in the params (pagerank or indegree, see LinkGraphApp) to the
+     * scores of the query, if there is one.
+     */
+    protected Query withPrior(Query query){
+        if (p.prior == null) {
+            return query;
+        }
+        try {
+            return new PriorQuery(query, p.prior, p.priorWeight);
+        } catch (IllegalArgumentException e){
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        return query;
+    }
+
     public RetrievalApp(String retrievalParamFile){
+        this(retrievalParamFile, null);
+    }
+
+    /**
+     * Searches indexName, when it is not null, instead of the index named in the param file.
+     */
+    public RetrievalApp(String retrievalParamFile, String indexName){
         System.out.println("Retrieval App");
         System.out.println("Param File: " + retrievalParamFile);
         readParamsFromFile(retrievalParamFile);
+        if (indexName != null) {
+            p.indexName = indexName;
+            System.out.println("Searching index: " + p.indexName);
+        }
         try {
             reader = DirectoryReader.open(FSDirectory.open( new File(p.indexName).toPath()) );
             searcher = new IndexSearcher(reader);
@@ -291,23 +323,3 @@ public class RetrievalApp {
         retriever.processQueryFile();
     }
 }
-
-@XmlRootElement(name = "RetrievalParams")
-class RetrievalParams {
-    public String indexName;
-    public String queryFile;
-    public String resultFile;
-    public String model;
-    public int maxResults;
-    public float k;
-    public float b;
-    public float lam;
-    public float beta;
-    public float mu;
-    public float c;
-    public float delta;
-    public String runTag;
-    public String tokenFilterFile;
-    public String fieldsFile;
-    public String qeFile;
-}
\ No newline at end of file
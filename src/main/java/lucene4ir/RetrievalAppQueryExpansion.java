@@ -1,10 +1,10 @@
 package lucene4ir;
 
+import lucene4ir.utils.DocnumLookup;
 import lucene4ir.utils.SynonymProvider;
 import net.sf.extjwnl.JWNLException;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -159,6 +159,7 @@ public class RetrievalAppQueryExpansion {
             BufferedReader br = new BufferedReader(new FileReader(p.queryFile));
             File file = new File(p.resultFile);
             FileWriter fw = new FileWriter(file);
+            DocnumLookup docnums = new DocnumLookup(reader);
 
             try {
                 String line = br.readLine();
@@ -176,8 +177,7 @@ public class RetrievalAppQueryExpansion {
                     int n = Math.min(p.maxResults, scored.length);
 
                     for(int i=0; i<n; i++){
-                        Document doc = searcher.doc(scored[i].doc);
-                        String docno = doc.get("docnum");
+                        String docno = docnums.get(scored[i].doc);
                         fw.write(qno + " QO " + docno + " " + (i+1) + " " + scored[i].score + " " + p.runTag);
                         fw.write(System.lineSeparator());
                     }
@@ -0,0 +1,25 @@
+package lucene4ir;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+@XmlRootElement(name = "RetrievalParams")
+class RetrievalParams {
+    public String indexName;
+    public String queryFile;
+    public String resultFile;
+    public String model;
+    public int maxResults;
+    public float k;
+    public float b;
+    public float lam;
+    public float beta;
+    public float mu;
+    public float c;
+    public float delta;
+    public String runTag;
+    public String tokenFilterFile;
+    public String fieldsFile;
+    public String qeFile;
+    public String prior;
+    public float priorWeight;
+}
\ No newline at end of file
@@ -1,10 +1,12 @@
 package lucene4ir.indexer;
 
+import lucene4ir.IndexParams;
 import lucene4ir.Lucene4IRConstants;
 import org.apache.lucene.document.*;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.IOException;
+import java.util.function.Consumer;
 
 /**
  * Created by leif on 21/08/2016.
@@ -17,11 +19,11 @@ public class CACMDocumentIndexer extends DocumentIndexer {
     private Field textField;
     private Field authorField;
     private Field pubdateField;
-    private Field allField;
+    private Field[] allFields;
     private Document doc;
 
-    public CACMDocumentIndexer(String indexPath, String tokenFilterFile, boolean positional){
-        super(indexPath, tokenFilterFile,positional);
+    public CACMDocumentIndexer(IndexParams p){
+        super(p);
 
         // Reusable document object to reduce GC overhead
         doc = new Document();
@@ -30,22 +32,25 @@ public class CACMDocumentIndexer extends DocumentIndexer {
         initCacmDoc();
     }
 
+    private CACMDocumentIndexer(CACMDocumentIndexer parent){
+        super(parent);
+        doc = new Document();
+        initFields();
+        initCacmDoc();
+    }
+
+    @Override
+    public DocumentIndexer newWorker(){
+        return new CACMDocumentIndexer(this);
+    }
+
     private void initFields() {
-        System.out.println("InitFields");
-        docnumField = new StringField(Lucene4IRConstants.FIELD_DOCNUM, "", Field.Store.YES);
-        pubdateField = new StringField(Lucene4IRConstants.FIELD_PUBDATE, "", Field.Store.YES);
-        if(indexPositions){
-            titleField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            authorField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_AUTHOR, "", Field.Store.YES);
-            allField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-        }
-        else {
-            titleField = new TextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            authorField = new TextField(Lucene4IRConstants.FIELD_AUTHOR, "", Field.Store.YES);
-            allField = new TextField(Lucene4IRConstants.FIELD_ALL,"", Field.Store.YES);
-        }
+        docnumField = newStringField(Lucene4IRConstants.FIELD_DOCNUM);
+        pubdateField = newStringField(Lucene4IRConstants.FIELD_PUBDATE);
+        titleField = newTextField(Lucene4IRConstants.FIELD_TITLE);
+        textField = newTextField(Lucene4IRConstants.FIELD_CONTENT);
+        authorField = newTextField(Lucene4IRConstants.FIELD_AUTHOR);
+        allFields = newAllFields(Lucene4IRConstants.FIELD_TITLE, Lucene4IRConstants.FIELD_AUTHOR, Lucene4IRConstants.FIELD_CONTENT);
     }
 
     private void initCacmDoc() {
@@ -54,7 +59,9 @@ public class CACMDocumentIndexer extends DocumentIndexer {
         doc.add(textField);
         doc.add(authorField);
         doc.add(pubdateField);
-        doc.add(allField);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
     }
 
     public Document createCacmDocument(String docid, String title, String author, String content, String pubdate){
@@ -64,97 +71,95 @@ public class CACMDocumentIndexer extends DocumentIndexer {
         authorField.setStringValue(author);
         textField.setStringValue(content);
         pubdateField.setStringValue(pubdate);
-        allField.setStringValue(title + " " + author + " " +  content);
+        setStringValues(allFields, title, author, content);
 
         doc.add(docnumField);
         doc.add(titleField);
         doc.add(textField);
         doc.add(authorField);
         doc.add(pubdateField);
-        doc.add(allField);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
 
         return doc;
     }
 
 
-    public void indexDocumentsFromFile(String filename){
-        try {
-            BufferedReader br = openDocumentFile(filename);
-            try {
-
-                String[] fields= new String[5];
-                for (int i=0; i<fields.length; i++){
-                    fields[i]="";
-                }
-                // 0 - docid, 1 - title, 2-authors, 3-content, 4-pubdate
-                int fieldno = 0;
-
-
-                String line = br.readLine();
-                while (line != null){
-
-                    if (line.startsWith(".I")){
-                        // if there is an existing document, create doc, and add to index
-                        if (!fields[0].equals("")){
-                            doc.clear();
-                            doc = createCacmDocument(fields[0],fields[1],fields[2],fields[3],fields[4]);
-                            addDocumentToIndex(doc);
-                        }
-
-                        // reset fields
-                        for (int i=0; i<fields.length; i++){
-                            fields[i]="";
-                        }
-                        String[] parts = line.split(" ");
-                        // set field 0 to docid
-                        fields[0] = parts[1];
-                        System.out.println("Indexing document: " + parts[1]);
-                        fieldno = 0;
-                    }
-
-                    if (line.startsWith(".T")){
-                        // set field to title, capture title text
-                        fieldno = 1;
-                    }
-
-                    if (line.startsWith(".A")){
-                        // set field to author
-                        fieldno = 2;
-                    }
-
-                    if (line.startsWith(".W")){
-                        // set field to content
-                        fieldno = 3;
-                    }
-
-                    if (line.startsWith(".B")){
-                        // set field to pub date
-                        fieldno = 4;
-                    }
-
-                    if ((line.startsWith(".X")) || (line.startsWith(".N")) ){
-                        // set field to title, capture title text
-                        fieldno = 6;
-                    }
-
-                    if ((fieldno > 0) && (fieldno < 5)) {
-                        if (line.length()>2) {
-                            fields[fieldno] += " " + line;
-                        }
-                    }
-                    line = br.readLine();
-                }
-                if (!fields[0].equals("")){
-                    doc = createCacmDocument(fields[0],fields[1],fields[2],fields[3],fields[4]);
-                    addDocumentToIndex(doc);
+    /**
+     * CACM documents have no closing tag: each one runs from its ".I" line up to the next.
+     */
+    protected void readDocumentRecords(String filename, Consumer<CharSequence> handler) throws IOException {
+        try (BufferedReader br = openDocumentFile(filename)) {
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(".I") && text.length() > 0) {
+                    handler.accept(text.toString());
+                    text.setLength(0);
                 }
+                text.append(line).append("\n");
+            }
+            if (text.length() > 0) {
+                handler.accept(text.toString());
+            }
+        }
+    }
+
+    public void indexDocumentRecord(CharSequence record){
 
-            } finally {
-                br.close();
+        String[] fields= new String[5];
+        for (int i=0; i<fields.length; i++){
+            fields[i]="";
+        }
+        // 0 - docid, 1 - title, 2-authors, 3-content, 4-pubdate
+        int fieldno = 0;
+
+        for (String line : record.toString().split("\n")) {
+
+            if (line.startsWith(".I")){
+                String[] parts = line.split(" ");
+                // set field 0 to docid
+                fields[0] = parts[1];
+                fieldno = 0;
+            }
+
+            if (line.startsWith(".T")){
+                // set field to title, capture title text
+                fieldno = 1;
+            }
+
+            if (line.startsWith(".A")){
+                // set field to author
+                fieldno = 2;
+            }
+
+            if (line.startsWith(".W")){
+                // set field to content
+                fieldno = 3;
             }
-        } catch (Exception e){
-            System.out.println(" caught a " + e.getClass() +
-                    "\n with message: " + e.getMessage());
+
+            if (line.startsWith(".B")){
+                // set field to pub date
+                fieldno = 4;
+            }
+
+            if ((line.startsWith(".X")) || (line.startsWith(".N")) ){
+                // set field to title, capture title text
+                fieldno = 6;
+            }
+
+            if ((fieldno > 0) && (fieldno < 5)) {
+                if (line.length()>2) {
+                    fields[fieldno] += " " + line;
+                }
+            }
+        }
+
+        if (!fields[0].equals("")){
+            doc.clear();
+            doc = createCacmDocument(fields[0],fields[1],fields[2],fields[3],fields[4]);
+            addDocumentToIndex(doc);
         }
     };
 
@@ -0,0 +1,212 @@
+package lucene4ir.indexer;
+
+import lucene4ir.IndexParams;
+import lucene4ir.Lucene4IRConstants;
+import lucene4ir.utils.HtmlTextExtractor;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import parse.WarcReader;
+import parse.WarcRecord;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Indexer for the ClueWeb09 and ClueWeb12 collections, stored as (gzipped) WARC files.
+ *
+ * The files are read one WARC record at a time with parse.WarcReader. Each response
+ * record becomes one document: its WARC-TREC-ID is the docnum, its WARC-Target-URI the
+ * url, and the page after the HTTP headers is decoded with the charset they give (UTF-8
+ * otherwise) and passed to HtmlTextExtractor for the title and content.
+ * With dedup set, duplicate pages are skipped, or indexed with the docnum of the page
+ * they duplicate in duplicateOf (see DuplicateDetector).
+ * With anchorIndex set, the text of the links to each page (see AnchorTextApp) is indexed
+ * in its anchor field, and in all.
+ */
+public class CLUEWEBDocumentIndexer extends DocumentIndexer {
+
+    private static final String TREC_ID = "WARC-TREC-ID";
+    private static final String TARGET_URI = "WARC-Target-URI";
+
+    private Field docnumField;
+    private Field titleField;
+    private Field textField;
+    private Field[] allFields;
+    private Field urlField;
+    private Field duplicateOfField;
+    private Field anchorField;
+    private Document doc;
+
+    private final HtmlTextExtractor html = new HtmlTextExtractor();
+
+    public CLUEWEBDocumentIndexer(IndexParams p){
+        super(p);
+        doc = new Document();
+        initFields();
+        initClueWebDoc();
+    }
+
+    private CLUEWEBDocumentIndexer(CLUEWEBDocumentIndexer parent){
+        super(parent);
+        doc = new Document();
+        initFields();
+        initClueWebDoc();
+    }
+
+    @Override
+    public DocumentIndexer newWorker(){
+        return new CLUEWEBDocumentIndexer(this);
+    }
+
+    private void initFields() {
+        docnumField = newStringField(Lucene4IRConstants.FIELD_DOCNUM);
+        titleField = newTextField(Lucene4IRConstants.FIELD_TITLE);
+        textField = newTextField(Lucene4IRConstants.FIELD_CONTENT);
+        urlField = newTextField(Lucene4IRConstants.FIELD_URL);
+        allFields = anchors == null
+                ? newAllFields(Lucene4IRConstants.FIELD_TITLE, Lucene4IRConstants.FIELD_CONTENT, Lucene4IRConstants.FIELD_URL)
+                : newAllFields(Lucene4IRConstants.FIELD_TITLE, Lucene4IRConstants.FIELD_CONTENT, Lucene4IRConstants.FIELD_URL, Lucene4IRConstants.FIELD_ANCHOR);
+        duplicateOfField = newStringField(Lucene4IRConstants.FIELD_DUPLICATE_OF);
+        anchorField = newTextField(Lucene4IRConstants.FIELD_ANCHOR);
+    }
+
+    private void initClueWebDoc() {
+        doc.add(docnumField);
+        doc.add(urlField);
+        doc.add(titleField);
+        doc.add(textField);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
+    }
+
+    public Document createClueWebDocument(String docid, String url, String title, String content){
+        return createClueWebDocument(docid, url, title, content, null);
+    }
+
+    public Document createClueWebDocument(String docid, String url, String title, String content, String anchor){
+        docnumField.setStringValue(docid);
+        urlField.setStringValue(url);
+        titleField.setStringValue(title);
+        textField.setStringValue(content);
+        setStringValues(allFields, title, content, url, anchor == null ? "" : anchor);
+        doc.removeField(Lucene4IRConstants.FIELD_ANCHOR);
+        if (anchor != null) {
+            anchorField.setStringValue(anchor);
+            doc.add(anchorField);
+        }
+        return doc;
+    }
+
+    /**
+     * Each record is the text of one WARC response record: its WARC-TREC-ID and
+     * WARC-Target-URI header lines, an empty line, then the decoded HTTP response.
+     */
+    @Override
+    protected void readDocumentRecords(String filename, Consumer<CharSequence> handler) throws IOException {
+        try (WarcReader in = WarcReader.open(filename)) {
+            WarcRecord warc;
+            while ((warc = in.next()) != null) {
+                if (!warc.getHeaderRecordType().equalsIgnoreCase("response")) {
+                    continue;
+                }
+                String trecId = warc.getHeaderMetadataItem(TREC_ID);
+                if (trecId == null) {
+                    continue;
+                }
+                String uri = warc.getHeaderMetadataItem(TARGET_URI);
+                byte[] content = warc.getContent();
+                handler.accept(TREC_ID + ": " + trecId + "\n"
+                        + TARGET_URI + ": " + (uri == null ? "" : uri) + "\n\n"
+                        + new String(content, responseCharset(content)));
+            }
+        }
+    }
+
+    /**
+     * Returns the charset named in the Content-Type of the HTTP response headers, or UTF-8.
+     */
+    private static Charset responseCharset(byte[] content){
+        int end = Math.min(content.length, headersEnd(content));
+        // the headers are ASCII
+        String headers = new String(content, 0, end, StandardCharsets.ISO_8859_1).toLowerCase();
+        int type = headers.indexOf("content-type:");
+        int charset = type < 0 ? -1 : headers.indexOf("charset=", type);
+        if (charset >= 0 && headers.lastIndexOf('\n', charset) < type) {
+            int start = charset + "charset=".length();
+            if (start < headers.length() && (headers.charAt(start) == '"' || headers.charAt(start) == '\'')) {
+                start++;
+            }
+            int stop = start;
+            while (stop < headers.length() && " ;\r\n\"'".indexOf(headers.charAt(stop)) < 0) {
+                stop++;
+            }
+            try {
+                return Charset.forName(headers.substring(start, stop));
+            } catch (IllegalArgumentException e){
+                // unknown or malformed charset
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static int headersEnd(byte[] content){
+        for (int i = 0; i + 1 < content.length; i++) {
+            if (content[i] == '\n' && (content[i + 1] == '\n'
+                    || (content[i + 1] == '\r' && i + 2 < content.length && content[i + 2] == '\n'))) {
+                return i;
+            }
+        }
+        return content.length;
+    }
+
+    public void indexDocumentRecord(CharSequence text){
+        String record = text.toString();
+        int idEnd = record.indexOf('\n');
+        int uriEnd = record.indexOf('\n', idEnd + 1);
+        if (idEnd < 0 || uriEnd < 0) {
+            return;
+        }
+        String docnum = record.substring(TREC_ID.length() + 2, idEnd);
+        String url = record.substring(idEnd + 1 + TARGET_URI.length() + 2, uriEnd);
+
+        // skip the HTTP status line and headers, up to the first empty line
+        int bodyStart = record.length();
+        int crlf = record.indexOf("\r\n\r\n", uriEnd + 2);
+        int lf = record.indexOf("\n\n", uriEnd + 2);
+        if (crlf >= 0 && (lf < 0 || crlf < lf)) {
+            bodyStart = crlf + 4;
+        } else if (lf >= 0) {
+            bodyStart = lf + 2;
+        }
+
+        html.extract(record, bodyStart, record.length());
+        String title = html.getTitle();
+        String content = html.getText();
+
+        String original = duplicates == null ? null : duplicates.check(docnum, content);
+        if (original != null && duplicates.skipsDuplicates()) {
+            return;
+        }
+
+        String anchor = null;
+        if (anchors != null) {
+            try {
+                anchor = anchors.get(docnum);
+            } catch (IOException e){
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        createClueWebDocument(docnum, url, title, content, anchor);
+        doc.removeField(Lucene4IRConstants.FIELD_DUPLICATE_OF);
+        if (original != null) {
+            duplicateOfField.setStringValue(original);
+            doc.add(duplicateOfField);
+        }
+        addDocumentToIndex(doc);
+    }
+}
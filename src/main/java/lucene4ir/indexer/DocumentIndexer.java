@@ -1,18 +1,48 @@
 package lucene4ir.indexer;
 
+import lucene4ir.FieldParams;
+import lucene4ir.IndexParams;
 import lucene4ir.Lucene4IRConstants;
+import lucene4ir.utils.AnchorText;
+import lucene4ir.utils.ByteCharSequence;
+import lucene4ir.utils.IndexSort;
+import lucene4ir.utils.ReadAheadReader;
 import lucene4ir.utils.TokenAnalyzerMaker;
 import org.apache.commons.compress.compressors.z.ZCompressorInputStream;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.InfoStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -24,88 +54,528 @@ import java.util.zip.GZIPInputStream;
  * probably should re-factor class to provide a templated method with the BufferredReader to process for each file
  * and not the file itself.
  */
-public class DocumentIndexer {
+public abstract class DocumentIndexer {
+
+    // the largest part of an uncompressed file that is mapped at once
+    private static final int MAX_MAP_SIZE = 1 << 30;
 
     protected boolean indexPositions;
+    protected IndexParams params;
     public IndexWriter writer;
     public Analyzer analyzer;
+    public DuplicateDetector duplicates; /** shared by the workers, null unless dedup is set **/
+    public AnchorText anchors; /** one per worker, null unless anchorIndex is set **/
+    public IndexingMetrics metrics = new IndexingMetrics(); /** shared by the workers **/
+
+    // time this indexer has spent in addDocument, which parseDocumentRecord leaves out of the parse time
+    protected long addNanos = 0;
+
+    // reused to add the docnum and field length doc values to each document
+    private final List<IndexableField> fields = new ArrayList<IndexableField>();
+    private final SortedDocValuesField docnumValues = new SortedDocValuesField(Lucene4IRConstants.FIELD_DOCNUM, new BytesRef());
+    private final Set<String> countedFields = new HashSet<String>();
+    private final List<Field> lengthFields = new ArrayList<Field>();
+    // the stored fields whose text makes up "all", or null if it cannot be rebuilt from them
+    private List<String> allSources = null;
 
     public DocumentIndexer(){};
 
-    public DocumentIndexer(String indexPath, String tokenFilterFile, boolean positional){
+    public DocumentIndexer(IndexParams p){
+        params = p;
         writer = null;
         analyzer = Lucene4IRConstants.ANALYZER;
-        indexPositions=positional;
+        indexPositions = p.recordPositions;
 
-        if (tokenFilterFile != null){
+        if (p.tokenFilterFile != null){
             TokenAnalyzerMaker tam = new TokenAnalyzerMaker();
-            analyzer = tam.createAnalyzer(tokenFilterFile);
+            analyzer = tam.createAnalyzer(p.tokenFilterFile);
+        }
+        if (p.dedup != null) {
+            try {
+                duplicates = new DuplicateDetector("skip".equalsIgnoreCase(p.dedup),
+                        p.dedupDistance == null ? 3 : p.dedupDistance, p.dedupReport);
+            } catch (IOException | IllegalArgumentException e){
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        if (p.anchorIndex != null) {
+            try {
+                anchors = new AnchorText(p.anchorIndex);
+            } catch (IOException e){
+                e.printStackTrace();
+                System.exit(1);
+            }
         }
-        createWriter(indexPath);
+        createWriter(p.indexName);
+    }
+
+    /**
+     * Creates an indexer that adds documents to the same IndexWriter as parent.
+     * The IndexWriter is thread-safe, so each worker thread can own one of these
+     * (with its own Document and Field objects) while sharing the writer.
+     */
+    protected DocumentIndexer(DocumentIndexer parent){
+        params = parent.params;
+        writer = parent.writer;
+        analyzer = parent.analyzer;
+        duplicates = parent.duplicates;
+        anchors = parent.anchors == null ? null : new AnchorText(parent.anchors);
+        metrics = parent.metrics;
+        indexPositions = parent.indexPositions;
+    }
+
+    /**
+     * Returns a new indexer of the same type that shares this indexer's IndexWriter.
+     */
+    public abstract DocumentIndexer newWorker();
+
+    /**
+     * Returns a new indexer of the same type that adds its documents to the given writer
+     * instead, e.g. to build one shard of the index.
+     */
+    public DocumentIndexer newWorker(IndexWriter writer){
+        DocumentIndexer worker = newWorker();
+        worker.writer = writer;
+        return worker;
     }
 
 
     public void createWriter(String indexPath){
         /*
-        The indexPath specifies where to create the index
+        The indexPath specifies where to create the index.
+        In append mode an existing index there is added to rather than replaced.
          */
+        if ("append".equalsIgnoreCase(params.openMode)) {
+            writer = openWriter(indexPath, IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        } else {
+            writer = openWriter(indexPath, IndexWriterConfig.OpenMode.CREATE);
+        }
+    }
+
+    public IndexWriter openWriter(String indexPath){
+        return openWriter(indexPath, IndexWriterConfig.OpenMode.CREATE);
+    }
+
+    public IndexWriter openWriter(String indexPath, IndexWriterConfig.OpenMode openMode){
 
         // I am can imagine that there are lots of ways to create indexers -
         // We could add in some parameters to customize its creation
 
+        IndexWriter iw = null;
         try {
             Directory dir = FSDirectory.open(Paths.get(indexPath));
             System.out.println("Indexing to directory '" + indexPath + "'...");
 
-            IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-            writer = new IndexWriter(dir, iwc);
+            IndexWriterConfig iwc = new IndexWriterConfig(new FieldLengthAnalyzer(analyzer));
+            iwc.setOpenMode(openMode);
 
-        } catch (IOException e){
+            IndexWriterTimer timer = new IndexWriterTimer(metrics);
+            iwc.setInfoStream(timer);
+            iwc.setMergeScheduler(timer.newMergeScheduler());
+            if ("bulk".equalsIgnoreCase(params.writerProfile)) {
+                configureBulkLoad(iwc);
+            }
+            if (params.ramBufferMB != null) {
+                iwc.setRAMBufferSizeMB(params.ramBufferMB);
+            }
+            if (params.indexSort != null) {
+                // segments are sorted as they are merged, see IndexerApp
+                iwc.setIndexSort(IndexSort.parse(params.indexSort));
+            }
+            iw = new IndexWriter(dir, iwc);
+            if (openMode == IndexWriterConfig.OpenMode.CREATE) {
+                // a replaced index keeps the user data of its last commit, e.g. the files it
+                // had completed, which would otherwise be skipped when they are indexed again
+                iw.setLiveCommitData(Collections.<String, String>emptyMap().entrySet());
+            }
+
+        } catch (IOException | IllegalArgumentException e){
             e.printStackTrace();
             System.exit(1);
         }
+        return iw;
+    }
+
+    /**
+     * Tunes the writer for building a large index in one go rather than for searching
+     * while it is built: a RAM buffer sized from the heap so fewer, larger segments are
+     * flushed, a merge policy that lets more segments accumulate before merging them,
+     * merge threads to match the cores, and no compound files, which would otherwise be
+     * written and then thrown away by the next merge. Force merging the result (see
+     * maxSegments) then decides how many segments the final index is searched over.
+     */
+    protected void configureBulkLoad(IndexWriterConfig iwc){
+        long heapMB = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+        iwc.setRAMBufferSizeMB(Math.max(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB, Math.min(heapMB / 4, 1024)));
+
+        TieredMergePolicy mp = new TieredMergePolicy();
+        mp.setSegmentsPerTier(20);
+        mp.setMaxMergeAtOnce(20);
+        mp.setNoCFSRatio(0.0);
+        iwc.setMergePolicy(mp);
+        iwc.setUseCompoundFile(false);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int mergeThreads = Math.max(1, Math.min(4, cores / 2));
+        ConcurrentMergeScheduler cms = (ConcurrentMergeScheduler) iwc.getMergeScheduler();
+        cms.setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+        cms.disableAutoIOThrottle();
+
+        System.out.println("Bulk load profile: " + iwc.getRAMBufferSizeMB() + " MB RAM buffer, "
+                + mergeThreads + " merge thread(s), no compound files");
+    }
+
+    /**
+     * Returns a tokenized field for the indexer to fill in: stored, and with term vectors
+     * if recordPositions is set, unless the index params say otherwise for this field.
+     */
+    protected Field newTextField(String name){
+        FieldType type = fieldType(name, indexPositions ? TermVectorEnabledTextField.TYPE_STORED : TextField.TYPE_STORED);
+        countLength(name, type);
+        return new Field(name, "", type);
+    }
+
+    /**
+     * Returns a stored field that is indexed as a single term, e.g. for the docnum,
+     * unless the index params say otherwise for this field.
+     */
+    protected Field newStringField(String name){
+        return new Field(name, "", fieldType(name, StringField.TYPE_STORED));
+    }
+
+    /**
+     * Returns the fields that hold the values of a document's "all" field, one per value.
+     * Lucene analyses the values of a multi-valued field one after the other, as if they
+     * were one text with a space between each, so the values can be the strings of the
+     * other fields rather than a new String that joins them. By default "all" is not
+     * stored, as its text is already stored in the fields it is made of. Indexers whose
+     * "all" is made of other fields name them with newAllFields(String...) instead.
+     */
+    protected Field[] newAllFields(int values){
+        allSources = null;
+        FieldType type = fieldType(Lucene4IRConstants.FIELD_ALL,
+                indexPositions ? TermVectorEnabledTextField.TYPE_NOT_STORED : TextField.TYPE_NOT_STORED);
+        countLength(Lucene4IRConstants.FIELD_ALL, type);
+        Field[] fields = new Field[values];
+        for (int i = 0; i < values; i++) {
+            fields[i] = new Field(Lucene4IRConstants.FIELD_ALL, "", type);
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the fields that hold the values of a document's "all" field, as newAllFields(int)
+     * does, one for the text of each of the named fields in turn. If they are all stored,
+     * "all" can be rebuilt from them (see getAllSources).
+     */
+    protected Field[] newAllFields(String... sources){
+        Field[] fields = newAllFields(sources.length);
+        boolean stored = true;
+        for (String name : sources) {
+            stored &= fieldType(name, TextField.TYPE_STORED).stored();
+        }
+        allSources = stored ? Arrays.asList(sources) : null;
+        return fields;
+    }
+
+    /**
+     * Returns the stored fields whose text, joined with spaces, is the text indexed as "all",
+     * or null if "all" is not made of stored fields (see StoredText).
+     */
+    public List<String> getAllSources(){
+        return allSources;
+    }
+
+    /**
+     * Returns the type of the named field: the given default type, changed by the
+     * settings for the field in the index params if there are any.
+     */
+    protected FieldType fieldType(String name, FieldType defaultType){
+        FieldParams fp = params == null ? null : params.getFieldParams(name);
+        if (fp == null) {
+            return defaultType;
+        }
+        FieldType type = new FieldType(defaultType);
+        if (fp.stored != null) {
+            type.setStored(fp.stored);
+        }
+        IndexOptions indexOptions = fp.getIndexOptions();
+        if (indexOptions != null) {
+            type.setIndexOptions(indexOptions);
+        }
+        if (fp.norms != null) {
+            type.setOmitNorms(!fp.norms);
+        }
+        boolean termVectors = fp.termVectors != null ? fp.termVectors : type.storeTermVectors();
+        // term vectors need an indexed field, and record what its postings do
+        termVectors &= type.indexOptions() != IndexOptions.NONE;
+        type.setStoreTermVectors(termVectors);
+        type.setStoreTermVectorPositions(termVectors
+                && type.indexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0);
+        type.setStoreTermVectorOffsets(termVectors
+                && type.indexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0);
+        type.freeze();
+        return type;
+    }
+
+    /**
+     * Adds the length and the number of distinct terms of the named field to each document
+     * as numeric doc values (see FieldLengthAnalyzer), if the field is analysed.
+     */
+    private void countLength(String name, FieldType type){
+        if (type.indexOptions() != IndexOptions.NONE && type.tokenized() && countedFields.add(name)) {
+            lengthFields.add(FieldLengthAnalyzer.newLengthField(name));
+            lengthFields.add(FieldLengthAnalyzer.newUniqueTermsField(name));
+        }
+    }
+
+    protected static void setStringValues(Field[] fields, String... values){
+        for (int i = 0; i < fields.length; i++) {
+            fields[i].setStringValue(values[i]);
+        }
     }
 
     public void addDocumentToIndex(Document doc){
+        long start = System.nanoTime();
         try {
-            writer.addDocument(doc);
+            FieldLengthAnalyzer.startDocument();
+            writer.addDocument(withDocValues(doc));
         } catch (IOException e){
             e.printStackTrace();
             System.exit(1);
         }
+        long nanos = System.nanoTime() - start;
+        addNanos += nanos;
+        metrics.added(nanos);
     }
 
-    public void indexDocumentsFromFile(String filename){
-        /* to be implemented in sub classess*/
+    /**
+     * Returns the fields of doc together with its docnum as a SortedDocValuesField, so that
+     * the docnum of a search result can be read without loading its stored fields (see
+     * DocnumLookup), and the length doc values of its analysed fields. These come last, so
+     * that the text they count has been analysed by the time the writer reads them.
+     */
+    private Iterable<IndexableField> withDocValues(Document doc){
+        String docnum = doc.get(Lucene4IRConstants.FIELD_DOCNUM);
+        if (docnum == null && lengthFields.isEmpty()) {
+            return doc;
+        }
+        fields.clear();
+        for (IndexableField field : doc) {
+            fields.add(field);
+        }
+        if (docnum != null) {
+            docnumValues.setBytesValue(new BytesRef(docnum));
+            fields.add(docnumValues);
+        }
+        fields.addAll(lengthFields);
+        return fields;
+    }
+
+    /**
+     * Indexes the documents of the file, and returns whether it was read to the end. The
+     * documents read before an error stay in the index.
+     */
+    public boolean indexDocumentsFromFile(String filename){
+        try {
+            readDocumentRecords(filename, this::parseDocumentRecord);
+            return true;
+        } catch (IOException e){
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            return false;
+        }
     };
 
+    /**
+     * Reads the raw text of each document in the file, i.e. everything from a &lt;DOC&gt;
+     * line to the matching &lt;/DOC&gt; line, and passes it to handler.
+     * Subclasses whose files are laid out differently override this.
+     * It only uses local state, so it may be called from several threads at once.
+     */
+    protected void readDocumentRecords(String filename, Consumer<CharSequence> handler) throws IOException {
+        if (!isCompressed(filename)) {
+            readMappedDocumentRecords(filename, handler);
+            return;
+        }
+        try (BufferedReader br = openDocumentFile(filename)) {
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("<DOC>")) {
+                    text.setLength(0);
+                }
+                text.append(line).append("\n");
+
+                if (line.startsWith("</DOC>")) {
+                    handler.accept(text.toString());
+                    text.setLength(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the records of an uncompressed file as readDocumentRecords does, but maps the
+     * file into memory and finds the &lt;DOC&gt; and &lt;/DOC&gt; lines by looking at its bytes.
+     * A record of ASCII text with \n line ends is passed on as a ByteCharSequence view of the
+     * mapped file, without being copied; any other record is decoded as UTF-8 and given \n
+     * line ends, as the line reader would have.
+     */
+    private void readMappedDocumentRecords(String filename, Consumer<CharSequence> handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long base = 0;
+            while (base < fileSize) {
+                int size = (int) Math.min(fileSize - base, MAX_MAP_SIZE);
+                boolean last = base + size == fileSize;
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, base, size);
+                int scanned = scanDocumentRecords(bytes, size, last, handler);
+                if (scanned == 0 && !last) {
+                    throw new IOException("A record in " + filename + " is larger than " + MAX_MAP_SIZE + " bytes");
+                }
+                base += scanned;
+            }
+        }
+    }
+
+    /**
+     * Passes the records in the first size bytes to handler. Unless this is the last part of
+     * the file, the record that runs past the end is left for the next part: returns where it
+     * starts, i.e. the number of bytes that have been dealt with.
+     */
+    private static int scanDocumentRecords(ByteBuffer bytes, int size, boolean last, Consumer<CharSequence> handler){
+        int recordStart = 0;
+        // whether the record so far is ASCII with \n line ends
+        boolean plain = true;
+        int lineStart = 0;
+        while (lineStart < size) {
+            int lineEnd = lineStart;
+            boolean plainLine = true;
+            byte b = 0;
+            while (lineEnd < size && (b = bytes.get(lineEnd)) != '\n' && b != '\r') {
+                plainLine &= b >= 0;
+                lineEnd++;
+            }
+            int next;
+            if (lineEnd == size || (b == '\r' && lineEnd + 1 == size)) {
+                // the line, or its \r\n, may go on in the next part
+                if (!last) {
+                    return recordStart;
+                }
+                plainLine = false;
+                next = size;
+            } else if (b == '\r') {
+                plainLine = false;
+                next = bytes.get(lineEnd + 1) == '\n' ? lineEnd + 2 : lineEnd + 1;
+            } else {
+                next = lineEnd + 1;
+            }
+
+            if (startsWith(bytes, lineStart, lineEnd, "<DOC>")) {
+                recordStart = lineStart;
+                plain = plainLine;
+            } else {
+                plain &= plainLine;
+            }
+            if (startsWith(bytes, lineStart, lineEnd, "</DOC>")) {
+                if (plain) {
+                    handler.accept(new ByteCharSequence(bytes, recordStart, next - recordStart));
+                } else {
+                    handler.accept(decodeLines(bytes, recordStart, next));
+                }
+                recordStart = next;
+                plain = true;
+            }
+            lineStart = next;
+        }
+        return size;
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, int start, int end, String prefix){
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes.get(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decodeLines(ByteBuffer bytes, int start, int end){
+        byte[] b = new byte[end - start];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = bytes.get(start + i);
+        }
+        StringBuilder text = new StringBuilder(b.length);
+        try (BufferedReader br = new BufferedReader(new StringReader(new String(b, StandardCharsets.UTF_8)))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                text.append(line).append("\n");
+            }
+        } catch (IOException e){
+            // not thrown by a StringReader
+        }
+        return text.toString();
+    }
+
+    /**
+     * Indexes the record with indexDocumentRecord, and adds it to the metrics, with the time
+     * it took to parse, i.e. less the time spent adding its document to the writer.
+     */
+    public void parseDocumentRecord(CharSequence record){
+        long start = System.nanoTime();
+        long added = addNanos;
+        try {
+            indexDocumentRecord(record);
+        } finally {
+            metrics.parsed(1, record.length(), System.nanoTime() - start - (addNanos - added));
+        }
+    }
+
+    /**
+     * Parses one document record, as produced by {@link #readDocumentRecords}, and adds it to the index.
+     * To be implemented in sub classes.
+     */
+    public void indexDocumentRecord(CharSequence record){
+    }
+
+    protected static boolean isCompressed(String filename){
+        return filename.endsWith(".gz") || filename.endsWith(".Z") || filename.endsWith(".0Z")
+                || filename.endsWith(".1Z") || filename.endsWith(".2Z");
+    }
+
+    /**
+     * Opens the file for reading, decompressing it if it is gzipped (.gz) or compressed (.Z, .0Z, .1Z, .2Z).
+     * Compressed files are decompressed and decoded by a ReadAheadReader, on a thread of
+     * its own, while the caller parses the text read so far.
+     */
     protected BufferedReader openDocumentFile(String filename){
         BufferedReader br = null;
         try {
             if(filename.endsWith(".gz")) {
                 InputStream fileStream = new FileInputStream(filename);
-                InputStream gzipStream = new GZIPInputStream(fileStream);
+                InputStream gzipStream = new GZIPInputStream(fileStream, 1 << 16);
                 Reader decoder = new InputStreamReader(gzipStream, "UTF-8");
-                br = new BufferedReader(decoder);
+                br = new BufferedReader(new ReadAheadReader(decoder, filename));
             }
             else
             {
                 // For the weirdness that is TREC collections.
                 if (filename.endsWith(".Z") || filename.endsWith(".0Z") || filename.endsWith(".1Z") || filename.endsWith(".2Z")) {
-                    InputStream fileStream = new FileInputStream(filename);
-                    //InputStream zipStream = new ZCompressorInputStream(fileStream);
+                    // the decompressor reads a byte at a time
+                    InputStream fileStream = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
                     ZCompressorInputStream zipStream = new ZCompressorInputStream(fileStream);
                     Reader decoder = new InputStreamReader(zipStream, "UTF-8");
-                    br = new BufferedReader(decoder);
+                    br = new BufferedReader(new ReadAheadReader(decoder, filename));
                 }
                 else
                     br = new BufferedReader(new FileReader(filename));
             }
 
-
-
-
         } catch (Exception e){
             e.printStackTrace();
             System.exit(1);
@@ -116,8 +586,16 @@ public class DocumentIndexer {
 
     public void finished(){
         try {
+            if (anchors != null){
+                anchors.close();
+            }
             if (writer != null){
+                InfoStream infoStream = writer.getConfig().getInfoStream();
                 writer.close();
+                if (infoStream instanceof IndexWriterTimer) {
+                    int segments = SegmentInfos.readLatestCommit(writer.getDirectory()).size();
+                    System.out.println(((IndexWriterTimer) infoStream).report(segments));
+                }
             }
         } catch (IOException e){
             e.printStackTrace();
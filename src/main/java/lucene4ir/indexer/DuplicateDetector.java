@@ -0,0 +1,354 @@
+package lucene4ir.indexer;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds web pages whose text is the same as, or nearly the same as, the text of a page seen
+ * before, so that the web indexers can skip or flag them (see IndexParams.dedup).
+ *
+ * Each page gets a hash of its whole word sequence, and a 64 bit SimHash of its word
+ * pairs, in which pages that share most of their word pairs differ in only a few bits
+ * (single words would make any two pages alike through their most common words). A page
+ * is an exact duplicate of an earlier page with the same hash, and a near-duplicate of one
+ * whose SimHash differs in at most maxDistance bits.
+ *
+ * Rather than comparing each page with every page before it, the SimHash is cut into
+ * blocks, in groups of three, with more groups than maxDistance / 2. A SimHash that differs
+ * in at most maxDistance bits then has a group in which at most one block differs, so it is
+ * equal in at least one pair of blocks of that group. The pages are chained together in one
+ * table per pair of blocks, and a page is only compared with the pages that share a pair
+ * with it: for the default distance of 3, six tables keyed on about 21 bits each.
+ *
+ * Only the first page of each cluster of duplicates is kept: its hashes, the links of the
+ * chains and its docnum, in direct buffers off the Java heap (about 80 bytes a page for the
+ * default distance), so that the tens of millions of pages of a web collection do not need
+ * a larger heap. The hashes are worked out by the calling thread; only the lookup is
+ * synchronized, as all the workers of an indexer share one detector.
+ */
+public class DuplicateDetector {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_PAGES = 1 << CHUNK_BITS;
+    private static final int NAME_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_BUCKET_BITS = 22;
+
+    // a page: SimHash, hash, docnum address, docnum length, number of duplicates, chain links
+    private static final int SIMHASH = 0;
+    private static final int HASH = 8;
+    private static final int NAME = 16;
+    private static final int NAME_LENGTH = 24;
+    private static final int DUPLICATES = 28;
+    private static final int NEXT = 32;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // the lowest bit of each byte
+    private static final long LANE_BITS = 0x0101010101010101L;
+
+    // the lower case of each ASCII letter or digit, 0 for the other ASCII chars
+    private static final char[] ASCII_WORD_CHARS = new char[128];
+    static {
+        for (char c = 0; c < 128; c++) {
+            ASCII_WORD_CHARS[c] = Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : 0;
+        }
+    }
+
+    private final boolean skip;
+    private final int maxDistance;
+    private final int tables;
+    private final int[] shiftA;
+    private final int[] shiftB;
+    private final long[] maskA;
+    private final long[] maskB;
+    private final int[] widthB;
+    private final int[] keyBits;
+    private final int bucketBits;
+    private final int pageSize;
+
+    private final IntBuffer[] heads;
+    private final List<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+    private final List<ByteBuffer> names = new ArrayList<ByteBuffer>();
+    private int numPages = 0;
+
+    private final Writer report;
+    private long checked = 0;
+    private long exact = 0;
+    private long near = 0;
+
+    /**
+     * @param skip whether duplicates are left out of the index, rather than flagged
+     * @param maxDistance the most SimHash bits in which a near-duplicate may differ
+     * @param reportFile file to list each duplicate in, or null
+     */
+    public DuplicateDetector(boolean skip, int maxDistance, String reportFile) throws IOException {
+        if (maxDistance < 0 || maxDistance > 7) {
+            throw new IllegalArgumentException("dedupDistance must be between 0 and 7: " + maxDistance);
+        }
+        this.skip = skip;
+        this.maxDistance = maxDistance;
+
+        int groups = maxDistance / 2 + 1;
+        int blocks = 3 * groups;
+        int[] start = new int[blocks + 1];
+        for (int j = 0; j <= blocks; j++) {
+            start[j] = 64 * j / blocks;
+        }
+        tables = 3 * groups;
+        shiftA = new int[tables];
+        shiftB = new int[tables];
+        maskA = new long[tables];
+        maskB = new long[tables];
+        widthB = new int[tables];
+        keyBits = new int[tables];
+        int widest = 0;
+        for (int t = 0; t < tables; t++) {
+            // the pairs of blocks of each group: first and second, first and third, second and third
+            int first = 3 * (t / 3);
+            int a = first + (t % 3 == 2 ? 1 : 0);
+            int b = first + (t % 3 == 0 ? 1 : 2);
+            int widthA = start[a + 1] - start[a];
+            widthB[t] = start[b + 1] - start[b];
+            shiftA[t] = start[a];
+            shiftB[t] = start[b];
+            maskA[t] = (1L << widthA) - 1;
+            maskB[t] = (1L << widthB[t]) - 1;
+            keyBits[t] = widthA + widthB[t];
+            widest = Math.max(widest, keyBits[t]);
+        }
+        bucketBits = Math.min(widest, MAX_BUCKET_BITS);
+        pageSize = NEXT + 4 * tables;
+
+        heads = new IntBuffer[tables];
+        for (int t = 0; t < tables; t++) {
+            heads[t] = ByteBuffer.allocateDirect(4 << bucketBits).asIntBuffer();
+            for (int b = 0; b < 1 << bucketBits; b++) {
+                heads[t].put(b, -1);
+            }
+        }
+        report = reportFile == null ? null : new BufferedWriter(new FileWriter(reportFile));
+    }
+
+    public boolean skipsDuplicates(){
+        return skip;
+    }
+
+    /**
+     * Returns the docnum of the page that the page with this docnum and text duplicates,
+     * or null if it is not a duplicate, in which case later pages are checked against it.
+     * Pages without any words are never duplicates.
+     */
+    public String check(String docnum, CharSequence text){
+        // the number of word pairs with each bit set: eight counters of one byte in each of
+        // eight longs, with bit k of every byte of a pair's hash counted in lanes[k]
+        long[] lanes = new long[8];
+        int[] ones = new int[64];
+        int inLanes = 0;
+        int pairs = 0;
+        long hash = 0;
+        long word = FNV_OFFSET;
+        long previous = 0;
+        boolean inWord = false;
+        int n = text.length();
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (c < 128) {
+                c = ASCII_WORD_CHARS[c];
+            } else {
+                c = Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : 0;
+            }
+            if (c != 0) {
+                word = (word ^ c) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                long w = mix(word);
+                long pair = mix(w ^ Long.rotateLeft(previous, 21));
+                for (int k = 0; k < 8; k++) {
+                    lanes[k] += (pair >>> k) & LANE_BITS;
+                }
+                if (++inLanes == 255) {
+                    addLanes(lanes, ones);
+                    inLanes = 0;
+                }
+                pairs++;
+                hash = mix(hash + w);
+                previous = w;
+                word = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+        if (pairs == 0) {
+            return null;
+        }
+        addLanes(lanes, ones);
+        long simHash = 0;
+        for (int b = 0; b < 64; b++) {
+            if (2 * ones[b] > pairs) {
+                simHash |= 1L << b;
+            }
+        }
+        return check(docnum, simHash, hash);
+    }
+
+    private static void addLanes(long[] lanes, int[] ones){
+        for (int k = 0; k < 8; k++) {
+            for (int i = 0; i < 8; i++) {
+                ones[8 * i + k] += (int) (lanes[k] >>> (8 * i)) & 0xff;
+            }
+            lanes[k] = 0;
+        }
+    }
+
+    private synchronized String check(String docnum, long simHash, long hash){
+        checked++;
+        int nearest = -1;
+        int nearestDistance = maxDistance + 1;
+        boolean same = false;
+        for (int t = 0; t < tables && !same; t++) {
+            for (int p = heads[t].get(bucket(t, simHash)); p >= 0; p = page(p).getInt(at(p) + NEXT + 4 * t)) {
+                ByteBuffer chunk = page(p);
+                int distance = Long.bitCount(chunk.getLong(at(p) + SIMHASH) ^ simHash);
+                if (distance == 0 && chunk.getLong(at(p) + HASH) == hash) {
+                    nearest = p;
+                    nearestDistance = 0;
+                    same = true;
+                    break;
+                }
+                if (distance < nearestDistance) {
+                    nearest = p;
+                    nearestDistance = distance;
+                }
+            }
+        }
+        if (nearest < 0) {
+            add(docnum, simHash, hash);
+            return null;
+        }
+        ByteBuffer chunk = page(nearest);
+        chunk.putInt(at(nearest) + DUPLICATES, chunk.getInt(at(nearest) + DUPLICATES) + 1);
+        String original = docnum(nearest);
+        if (same) {
+            exact++;
+        } else {
+            near++;
+        }
+        if (report != null) {
+            try {
+                report.write(docnum + " " + original + " " + (same ? "exact" : "near") + " " + nearestDistance + "\n");
+            } catch (IOException e){
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        return original;
+    }
+
+    private void add(String docnum, long simHash, long hash){
+        int p = numPages++;
+        if ((p & (CHUNK_PAGES - 1)) == 0) {
+            pages.add(ByteBuffer.allocateDirect(CHUNK_PAGES * pageSize));
+        }
+        ByteBuffer chunk = page(p);
+        int at = at(p);
+        chunk.putLong(at + SIMHASH, simHash);
+        chunk.putLong(at + HASH, hash);
+        byte[] name = docnum.getBytes(StandardCharsets.UTF_8);
+        chunk.putLong(at + NAME, addName(name));
+        chunk.putInt(at + NAME_LENGTH, name.length);
+        chunk.putInt(at + DUPLICATES, 0);
+        for (int t = 0; t < tables; t++) {
+            int bucket = bucket(t, simHash);
+            chunk.putInt(at + NEXT + 4 * t, heads[t].get(bucket));
+            heads[t].put(bucket, p);
+        }
+    }
+
+    private long addName(byte[] name){
+        ByteBuffer last = names.isEmpty() ? null : names.get(names.size() - 1);
+        if (last == null || last.remaining() < name.length) {
+            last = ByteBuffer.allocateDirect(Math.max(NAME_CHUNK_SIZE, name.length));
+            names.add(last);
+        }
+        long address = ((long) (names.size() - 1) << 32) | last.position();
+        last.put(name);
+        return address;
+    }
+
+    private String docnum(int p){
+        long address = page(p).getLong(at(p) + NAME);
+        byte[] name = new byte[page(p).getInt(at(p) + NAME_LENGTH)];
+        ByteBuffer chunk = names.get((int) (address >>> 32)).duplicate();
+        chunk.position((int) address);
+        chunk.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the bucket of table t for the SimHash: its pair of blocks, hashed down to
+     * bucketBits if they have more bits than that.
+     */
+    private int bucket(int t, long simHash){
+        long key = (((simHash >>> shiftA[t]) & maskA[t]) << widthB[t]) | ((simHash >>> shiftB[t]) & maskB[t]);
+        if (keyBits[t] <= bucketBits) {
+            return (int) key;
+        }
+        return (int) (mix(key) >>> (64 - bucketBits));
+    }
+
+    private ByteBuffer page(int p){
+        return pages.get(p >>> CHUNK_BITS);
+    }
+
+    private int at(int p){
+        return (p & (CHUNK_PAGES - 1)) * pageSize;
+    }
+
+    // the finalizer of MurmurHash3, to spread the bits of a hash
+    private static long mix(long h){
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Prints how many duplicates were found, and closes the report.
+     */
+    public synchronized void finished(){
+        int clusters = 0;
+        int largest = -1;
+        int largestSize = 0;
+        for (int p = 0; p < numPages; p++) {
+            int duplicates = page(p).getInt(at(p) + DUPLICATES);
+            if (duplicates > 0) {
+                clusters++;
+                if (duplicates > largestSize) {
+                    largestSize = duplicates;
+                    largest = p;
+                }
+            }
+        }
+        System.out.println("Duplicates " + (skip ? "skipped" : "flagged") + ": " + exact + " exact and "
+                + near + " near-duplicate pages, of " + checked + " pages with text, in " + clusters + " clusters");
+        if (largest >= 0) {
+            System.out.println("Largest duplicate cluster: " + docnum(largest) + " and " + largestSize + " duplicates");
+        }
+        if (report != null) {
+            try {
+                report.close();
+            } catch (IOException e){
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package lucene4ir.indexer;
+
+import lucene4ir.utils.FieldLengths;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.util.BytesRefHash;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wraps the analyzer of an IndexWriter to count the tokens and the distinct terms of each
+ * field of a document while the writer analyses it, so that they can be indexed as
+ * numeric doc values of the same document (see FieldLengths). Tokens stacked on the position
+ * of the one before (a position increment of 0, e.g. shingles or synonyms) are left out of
+ * the length, as Lucene leaves them out of the length of its norms, but their terms count.
+ *
+ * The writer analyses the fields of a document in the order they were added, and reads the
+ * value of a doc values field only when it comes to that field. So the fields returned by
+ * newLengthField and newUniqueTermsField, added after all the values of their text field,
+ * take the counts of that text field in the document. The counts are kept per thread, as
+ * each thread analyses the documents it adds; startDocument clears them for the next one.
+ */
+public class FieldLengthAnalyzer extends AnalyzerWrapper {
+
+    private static class Counts {
+        long tokens;
+        final BytesRefHash terms = new BytesRefHash();
+    }
+
+    private static final ThreadLocal<Map<String, Counts>> COUNTS = ThreadLocal.withInitial(HashMap::new);
+
+    private final Analyzer analyzer;
+
+    public FieldLengthAnalyzer(Analyzer analyzer){
+        // each field needs a filter of its own, to count into the counts of that field
+        super(PER_FIELD_REUSE_STRATEGY);
+        this.analyzer = analyzer;
+    }
+
+    @Override
+    protected Analyzer getWrappedAnalyzer(String fieldName){
+        return analyzer;
+    }
+
+    @Override
+    protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components){
+        return new TokenStreamComponents(components.getTokenizer(),
+                new CountingFilter(components.getTokenStream(), counts(fieldName)));
+    }
+
+    private static Counts counts(String field){
+        return COUNTS.get().computeIfAbsent(field, f -> new Counts());
+    }
+
+    /**
+     * Clears the counts of the current thread, before it adds a document.
+     */
+    public static void startDocument(){
+        for (Counts counts : COUNTS.get().values()) {
+            counts.tokens = 0;
+            counts.terms.clear();
+            counts.terms.reinit();
+        }
+    }
+
+    /**
+     * Returns a doc values field that holds the number of tokens of the named field.
+     */
+    public static Field newLengthField(String field){
+        return new CountField(FieldLengths.lengthField(field), field, false);
+    }
+
+    /**
+     * Returns a doc values field that holds the number of distinct terms of the named field.
+     */
+    public static Field newUniqueTermsField(String field){
+        return new CountField(FieldLengths.uniqueTermsField(field), field, true);
+    }
+
+    private static final class CountField extends Field {
+        private final String field;
+        private final boolean unique;
+
+        CountField(String name, String field, boolean unique){
+            super(name, NumericDocValuesField.TYPE);
+            this.field = field;
+            this.unique = unique;
+        }
+
+        @Override
+        public Number numericValue(){
+            Counts counts = counts(field);
+            return unique ? (long) counts.terms.size() : counts.tokens;
+        }
+    }
+
+    private static final class CountingFilter extends TokenFilter {
+        private final TermToBytesRefAttribute termAtt = addAttribute(TermToBytesRefAttribute.class);
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+        private final Counts counts;
+
+        CountingFilter(TokenStream input, Counts counts){
+            super(input);
+            this.counts = counts;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken()) {
+                return false;
+            }
+            if (posIncAtt.getPositionIncrement() > 0) {
+                counts.tokens++;
+            }
+            counts.terms.add(termAtt.getBytesRef());
+            return true;
+        }
+    }
+}
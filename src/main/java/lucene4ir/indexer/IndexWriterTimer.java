@@ -0,0 +1,91 @@
+package lucene4ir.indexer;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.util.InfoStream;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures where an IndexWriter spends its time while an index is built.
+ *
+ * Set it as the writer's InfoStream to time segment flushes: it only listens to the
+ * per-thread writers ("DWPT"), which report the time taken by each flush. Merges are
+ * timed by the merge scheduler returned by {@link #newMergeScheduler()}. Flushes are also
+ * added to the IndexingMetrics of the build, which may be shared by several writers.
+ */
+public class IndexWriterTimer extends InfoStream {
+
+    private static final String FLUSH_TIME = "flush time ";
+
+    private final long start = System.nanoTime();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushMicros = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong mergedDocs = new AtomicLong();
+    private final AtomicLong mergeNanos = new AtomicLong();
+    private final IndexingMetrics metrics;
+
+    public IndexWriterTimer(IndexingMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean isEnabled(String component){
+        return "DWPT".equals(component);
+    }
+
+    @Override
+    public void message(String component, String message){
+        if (message.startsWith(FLUSH_TIME)) {
+            int end = message.indexOf(" msec", FLUSH_TIME.length());
+            if (end > 0) {
+                try {
+                    double msec = Double.parseDouble(message.substring(FLUSH_TIME.length(), end));
+                    flushes.incrementAndGet();
+                    flushMicros.addAndGet((long) (msec * 1000));
+                    metrics.flushed((long) (msec * 1000));
+                } catch (NumberFormatException e){
+                    // not a timing message
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close(){
+    }
+
+    /**
+     * Returns a ConcurrentMergeScheduler that adds the time taken by each merge to this timer.
+     */
+    public ConcurrentMergeScheduler newMergeScheduler(){
+        return new ConcurrentMergeScheduler() {
+            @Override
+            protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+                long t0 = System.nanoTime();
+                try {
+                    super.doMerge(writer, merge);
+                } finally {
+                    mergeNanos.addAndGet(System.nanoTime() - t0);
+                    merges.incrementAndGet();
+                    mergedDocs.addAndGet(merge.totalMaxDoc);
+                }
+            }
+        };
+    }
+
+    /**
+     * Merges run on background threads, so the merge time is the sum over all merges
+     * and can exceed the elapsed time.
+     */
+    public String report(int segments){
+        return String.format("Writer: %d ms elapsed, %d flushes took %d ms, %d merges of %d docs took %d ms, %d segment(s)",
+                (System.nanoTime() - start) / 1000000,
+                flushes.get(), flushMicros.get() / 1000,
+                merges.get(), mergedDocs.get(), mergeNanos.get() / 1000000,
+                segments);
+    }
+}
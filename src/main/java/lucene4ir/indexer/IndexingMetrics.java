@@ -0,0 +1,155 @@
+package lucene4ir.indexer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what an index build has done so far: the documents parsed and added, the text
+ * read, and the time spent parsing, in IndexWriter.addDocument (which includes analysis)
+ * and flushing segments. One instance is shared by the indexer and all its workers, which
+ * add to it from their own threads, so the counters are LongAdders, and reading them while
+ * the build goes on gives a consistent enough picture for a progress report.
+ *
+ * The input files are counted by their size on disk as each one is finished, which is
+ * what the ETA is estimated from.
+ */
+public class IndexingMetrics {
+
+    private final long start = System.nanoTime();
+
+    private final LongAdder docsParsed = new LongAdder();
+    private final LongAdder docsAdded = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder addNanos = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushMicros = new LongAdder();
+    private final LongAdder filesDone = new LongAdder();
+    private final LongAdder inputBytesDone = new LongAdder();
+    private volatile int files;
+    private volatile long inputBytes;
+
+    /**
+     * Sets the number and total size of the files the build will read, for the ETA.
+     */
+    public void setInput(int files, long bytes){
+        this.files = files;
+        this.inputBytes = bytes;
+    }
+
+    public void parsed(long docs, long bytes, long nanos){
+        docsParsed.add(docs);
+        bytesRead.add(bytes);
+        parseNanos.add(nanos);
+    }
+
+    public void added(long nanos){
+        docsAdded.increment();
+        addNanos.add(nanos);
+    }
+
+    public void flushed(long micros){
+        flushes.increment();
+        flushMicros.add(micros);
+    }
+
+    public void fileDone(long bytes){
+        filesDone.increment();
+        inputBytesDone.add(bytes);
+    }
+
+    public long elapsedNanos(){
+        return System.nanoTime() - start;
+    }
+
+    public long docsParsed(){
+        return docsParsed.sum();
+    }
+
+    public long docsAdded(){
+        return docsAdded.sum();
+    }
+
+    public long bytesRead(){
+        return bytesRead.sum();
+    }
+
+    public long parseNanos(){
+        return parseNanos.sum();
+    }
+
+    public long addNanos(){
+        return addNanos.sum();
+    }
+
+    public long flushes(){
+        return flushes.sum();
+    }
+
+    public long flushMicros(){
+        return flushMicros.sum();
+    }
+
+    public long filesDone(){
+        return filesDone.sum();
+    }
+
+    public int files(){
+        return files;
+    }
+
+    /**
+     * Returns the seconds left if the rest of the input is read at the rate of the files
+     * finished so far, or -1 before the first file is finished.
+     */
+    public long etaSeconds(){
+        long done = inputBytesDone.sum();
+        if (done == 0 || inputBytes == 0) {
+            return -1;
+        }
+        double secs = elapsedNanos() / 1e9;
+        return Math.max(0, (long) (secs * (inputBytes - done) / done));
+    }
+
+    /**
+     * Returns the counts as a JSON object; docsPerSec and mbPerSec are the given recent
+     * rates, as the reporter measures them between two reports.
+     */
+    public String toJson(double docsPerSec, double mbPerSec){
+        long parsed = docsParsed();
+        long added = docsAdded();
+        return String.format(Locale.ROOT, "{\n" +
+                        "  \"elapsedSeconds\": %.1f,\n" +
+                        "  \"docsParsed\": %d,\n" +
+                        "  \"docsAdded\": %d,\n" +
+                        "  \"bytesRead\": %d,\n" +
+                        "  \"parseMillis\": %d,\n" +
+                        "  \"addDocumentMillis\": %d,\n" +
+                        "  \"flushes\": %d,\n" +
+                        "  \"flushMillis\": %d,\n" +
+                        "  \"filesDone\": %d,\n" +
+                        "  \"files\": %d,\n" +
+                        "  \"docsPerSec\": %.1f,\n" +
+                        "  \"mbPerSec\": %.2f,\n" +
+                        "  \"etaSeconds\": %d\n" +
+                        "}\n",
+                elapsedNanos() / 1e9, parsed, added, bytesRead(), parseNanos() / 1000000, addNanos() / 1000000,
+                flushes(), flushMicros() / 1000, filesDone(), files, docsPerSec, mbPerSec, etaSeconds());
+    }
+
+    /**
+     * Returns a one line summary, with the given recent rates.
+     */
+    public String report(double docsPerSec, double mbPerSec){
+        long parsed = docsParsed();
+        long added = docsAdded();
+        long eta = etaSeconds();
+        return String.format("Progress: %d docs parsed, %d added (%.0f docs/sec), %.1f MB read (%.2f MB/sec), " +
+                        "parse %.3f ms/doc, addDocument %.3f ms/doc, %d flushes, %d of %d files, ETA %s",
+                parsed, added, docsPerSec, bytesRead() / 1048576.0, mbPerSec,
+                parsed == 0 ? 0.0 : parseNanos() / 1e6 / parsed,
+                added == 0 ? 0.0 : addNanos() / 1e6 / added,
+                flushes(), filesDone(), files,
+                eta < 0 ? "unknown" : String.format("%d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+    }
+}
@@ -0,0 +1,87 @@
+package lucene4ir.indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints the progress of an index build every so many seconds, and writes it as JSON to
+ * a file, if one is given, for scripts and dashboards to read while the build goes on.
+ * The docs/sec and MB/sec are those since the previous report; the final report, made when
+ * it is closed, gives them over the whole build.
+ *
+ * The JSON is written to a temporary file that then replaces the last one, so a reader
+ * never sees half a report.
+ */
+public class IndexingReporter implements Closeable {
+
+    private final IndexingMetrics metrics;
+    private final Path jsonFile;
+    private final ScheduledExecutorService timer;
+
+    private long lastNanos = 0;
+    private long lastDocs = 0;
+    private long lastBytes = 0;
+
+    /**
+     * @param metrics the counts to report
+     * @param intervalSeconds how often to report, or 0 to only report when closed
+     * @param jsonFile where to write the JSON report, or null
+     */
+    public IndexingReporter(IndexingMetrics metrics, int intervalSeconds, String jsonFile){
+        this.metrics = metrics;
+        this.jsonFile = jsonFile == null ? null : Paths.get(jsonFile);
+        if (intervalSeconds > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "indexing-reporter");
+                t.setDaemon(true);
+                return t;
+            });
+            timer.scheduleAtFixedRate(() -> report(false), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            timer = null;
+        }
+    }
+
+    private synchronized void report(boolean overall){
+        long nanos = metrics.elapsedNanos();
+        long docs = metrics.docsAdded();
+        long bytes = metrics.bytesRead();
+        double secs = (overall ? nanos : nanos - lastNanos) / 1e9;
+        double docsPerSec = secs > 0 ? (overall ? docs : docs - lastDocs) / secs : 0;
+        double mbPerSec = secs > 0 ? (overall ? bytes : bytes - lastBytes) / 1048576.0 / secs : 0;
+        lastNanos = nanos;
+        lastDocs = docs;
+        lastBytes = bytes;
+
+        System.out.println(metrics.report(docsPerSec, mbPerSec));
+        if (jsonFile != null) {
+            try {
+                Path tmp = Paths.get(jsonFile + ".tmp");
+                Files.write(tmp, metrics.toJson(docsPerSec, mbPerSec).getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp, jsonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e){
+                System.out.println(" caught a " + e.getClass() +
+                        "\n with message: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic reports and makes the final one.
+     */
+    @Override
+    public void close(){
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        report(true);
+    }
+}
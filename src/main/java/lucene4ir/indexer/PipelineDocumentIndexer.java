@@ -0,0 +1,226 @@
+package lucene4ir.indexer;
+
+import org.apache.lucene.index.IndexWriter;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexes each file with a staged producer/consumer pipeline, so that one large file
+ * can keep several cores busy.
+ *
+ * The reader stage runs on the thread that calls {@link #indexDocumentsFromFile(String)}:
+ * it decompresses the file and splits it into raw document records (see
+ * {@link DocumentIndexer#readDocumentRecords}), which go onto a bounded queue. When the
+ * queue is full the reader blocks, which gives backpressure. A pool of parser threads,
+ * each with its own worker indexer, takes records off the queue, parses them into Lucene
+ * Documents and adds them to the shared IndexWriter. Analysis happens inside
+ * IndexWriter.addDocument on the parser threads, and the writer gives each of those
+ * threads its own in-memory segment, so adding needs no separate stage of its own.
+ *
+ * The time the reader spends blocked on a full queue, the time the parsers spend waiting
+ * on an empty one and the queue depth show which stage is the bottleneck; they are
+ * reported once, for the whole build, when the pipeline is finished.
+ */
+public class PipelineDocumentIndexer extends DocumentIndexer {
+
+    private static final Record END = new Record(null, null);
+
+    // a Phaser takes at most 65535 parties
+    private static final int MAX_PHASER_PARTIES = 65535;
+
+    private final DocumentIndexer indexer;
+    private final BlockingQueue<Record> queue;
+    private final int queueSize;
+    private final Thread[] parsers;
+
+    private final AtomicLong recordsRead = new AtomicLong();
+    private final AtomicLong recordsParsed = new AtomicLong();
+    private final AtomicLong readerBlockedNanos = new AtomicLong();
+    private final AtomicLong parserIdleNanos = new AtomicLong();
+    private final AtomicLong parserBusyNanos = new AtomicLong();
+    private final AtomicLong queueDepthSum = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    /**
+     * The largest queue size that can be used with the given number of parser threads. The
+     * reader of a file registers every record it has queued, or is about to queue, and has
+     * not seen parsed with a Phaser, so a queue and its parsers must fit in one Phaser.
+     */
+    public static int maxQueueSize(int parserThreads){
+        // the reader's own party, the record being put, and one record per parser
+        return MAX_PHASER_PARTIES - 2 - parserThreads;
+    }
+
+    /**
+     * @param indexer the indexer whose records are read; parser workers are created from it with newWorker()
+     * @param parserThreads number of parser threads
+     * @param queueSize maximum number of records waiting to be parsed
+     */
+    public PipelineDocumentIndexer(DocumentIndexer indexer, int parserThreads, int queueSize){
+        super(indexer);
+        if (queueSize < 1 || queueSize > maxQueueSize(parserThreads)) {
+            throw new IllegalArgumentException("Queue size " + queueSize + " should be between 1 and "
+                    + maxQueueSize(parserThreads) + " with " + parserThreads + " parser threads");
+        }
+        this.indexer = indexer;
+        this.queueSize = queueSize;
+        queue = new ArrayBlockingQueue<Record>(queueSize);
+        parsers = new Thread[parserThreads];
+        for (int i = 0; i < parserThreads; i++) {
+            parsers[i] = new Thread(new Parser(indexer.newWorker()), "parser-" + i);
+            parsers[i].setDaemon(true);
+            parsers[i].start();
+        }
+    }
+
+    /**
+     * The pipeline can be fed by several reader threads at once, so every
+     * worker of a pipeline is the pipeline itself.
+     */
+    @Override
+    public DocumentIndexer newWorker(){
+        return this;
+    }
+
+    /**
+     * Returns a separate pipeline, with its own parser threads, that adds to the given writer.
+     */
+    @Override
+    public DocumentIndexer newWorker(IndexWriter writer){
+        return new PipelineDocumentIndexer(indexer.newWorker(writer), parsers.length, queueSize);
+    }
+
+    /**
+     * Reads the file on the calling thread and returns once every document in it has been indexed.
+     */
+    @Override
+    public boolean indexDocumentsFromFile(String filename){
+        final Phaser pending = new Phaser(1);
+        boolean read = true;
+        try {
+            indexer.readDocumentRecords(filename, record -> put(new Record(record, pending)));
+        } catch (IOException e){
+            System.out.println(" caught a " + e.getClass() +
+                    "\n with message: " + e.getMessage());
+            read = false;
+        }
+        pending.arriveAndAwaitAdvance();
+        return read;
+    }
+
+    @Override
+    public void indexDocumentRecord(CharSequence record){
+        put(new Record(record, null));
+    }
+
+    private void put(Record record){
+        if (record.pending != null) {
+            record.pending.register();
+        }
+        long depth = queue.size();
+        queueDepthSum.addAndGet(depth);
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+
+        long start = System.nanoTime();
+        try {
+            queue.put(record);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        readerBlockedNanos.addAndGet(System.nanoTime() - start);
+        recordsRead.incrementAndGet();
+    }
+
+    /**
+     * Reports the stages over the whole build so far. Several reader threads can feed the
+     * pipeline at once, so the counts are not broken down by file.
+     */
+    public String stageReport(){
+        long read = recordsRead.get();
+        return String.format("Pipeline totals: read %d records (reader blocked %d ms), queue depth avg %.1f max %d of %d, " +
+                        "parsed %d records with %d threads (busy %d ms, idle %d ms)",
+                read, readerBlockedNanos.get() / 1000000,
+                read == 0 ? 0.0 : (double) queueDepthSum.get() / read, maxQueueDepth.get(),
+                queueSize,
+                recordsParsed.get(), parsers.length, parserBusyNanos.get() / 1000000, parserIdleNanos.get() / 1000000);
+    }
+
+    /**
+     * Stops the parser threads once the queue has drained, then closes the writer.
+     */
+    @Override
+    public void finished(){
+        try {
+            for (int i = 0; i < parsers.length; i++) {
+                queue.put(END);
+            }
+            for (Thread parser : parsers) {
+                parser.join();
+            }
+        } catch (InterruptedException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println(stageReport());
+        indexer.finished();
+    }
+
+    private class Parser implements Runnable {
+
+        private final DocumentIndexer worker;
+
+        Parser(DocumentIndexer worker){
+            this.worker = worker;
+        }
+
+        public void run(){
+            while (true) {
+                Record record;
+                long start = System.nanoTime();
+                try {
+                    record = queue.take();
+                } catch (InterruptedException e){
+                    return;
+                }
+                long taken = System.nanoTime();
+                parserIdleNanos.addAndGet(taken - start);
+                if (record == END) {
+                    return;
+                }
+
+                try {
+                    worker.parseDocumentRecord(record.text);
+                } catch (RuntimeException e){
+                    System.out.println(" caught a " + e.getClass() +
+                            "\n with message: " + e.getMessage());
+                } catch (Throwable t){
+                    // an Error leaves the parser in an unknown state, and once every parser
+                    // has died the reader would block on the full queue forever
+                    t.printStackTrace();
+                    System.exit(1);
+                } finally {
+                    parserBusyNanos.addAndGet(System.nanoTime() - taken);
+                    recordsParsed.incrementAndGet();
+                    if (record.pending != null) {
+                        record.pending.arriveAndDeregister();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Record {
+        final CharSequence text;
+        final Phaser pending;
+
+        Record(CharSequence text, Phaser pending){
+            this.text = text;
+            this.pending = pending;
+        }
+    }
+}
@@ -1,176 +1,286 @@
 package lucene4ir.indexer;
 
+import lucene4ir.IndexParams;
 import lucene4ir.Lucene4IRConstants;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-
-import org.xml.sax.*;
 import java.io.*;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathFactory;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Created by leif on 26/06/2017.
+ *
+ * Files are parsed in a single streaming (StAX) pass, filling the reused fields of one
+ * Document per &lt;PubmedArticle&gt; as the elements go by. The text of each field is what
+ * the XPath string value of its element was when every article was parsed into a DOM:
+ * all the text inside the element, with the indentation at the start of each line
+ * removed, trimmed.
  */
 
 public class PubMedDocumentIndexer extends DocumentIndexer {
 
-    public DocumentBuilderFactory builderFactory;
-    public DocumentBuilder builder;
-    public XPath xPath;
-
-    public PubMedDocumentIndexer(String indexPath, String tokenFilterFile, Boolean positional){
-        super(indexPath, tokenFilterFile, positional);
-        builderFactory = DocumentBuilderFactory.newInstance();
-        try {
-            builder = builderFactory.newDocumentBuilder();
-        } catch (Exception e){
-            System.out.println(" caught a " + e.getClass() +
-                    "\n with message: " + e.getMessage());
-        }
-        xPath =  XPathFactory.newInstance().newXPath();
+    private static final String ARTICLE = "PubmedArticle";
+
+    // the elements whose text is indexed, by their path from the article
+    private static final String[] PATHS = {
+            "/PubmedArticle/MedlineCitation/PMID",
+            "/PubmedArticle/MedlineCitation/DateCreated/Year",
+            "/PubmedArticle/MedlineCitation/Article/ArticleTitle",
+            "/PubmedArticle/MedlineCitation/Article/Abstract",
+            "/PubmedArticle/MedlineCitation/Article/Journal/Title",
+            "/PubmedArticle/MedlineCitation/Article/AuthorList"
+    };
+    private static final int PMID = 0;
+    private static final int YEAR = 1;
+    private static final int TITLE = 2;
+    private static final int ABSTRACT = 3;
+    private static final int JOURNAL = 4;
+    private static final int AUTHORS = 5;
+
+    private XMLInputFactory inputFactory;
+
+    private Field docnumField;
+    private Field yearField;
+    private Field titleField;
+    private Field contentField;
+    private Field journalField;
+    private Field authorsField;
+    private Field[] allFields;
+    private Document doc;
+
+    private final StringBuilder path = new StringBuilder();
+    private int[] pathLengths = new int[16];
+    private final StringBuilder[] values = new StringBuilder[PATHS.length];
+    private final boolean[] found = new boolean[PATHS.length];
+    private long articles = 0;
+
+    public PubMedDocumentIndexer(IndexParams p){
+        super(p);
+        initParser();
+        initFields();
     }
 
-    public void indexDocumentsFromFile(String filename){
-
-        String line = "";
-        StringBuilder text = new StringBuilder();
-
-
-        try {
-            BufferedReader br = openDocumentFile(filename);
-            try {
-
-                line = br.readLine();
-
-                while (line != null){
-                    line = line.replaceAll("^\\s+","");
-                    if (line.startsWith("<PubmedArticle>")) {
-                        text = new StringBuilder();
-                    }
-                    text.append(line + "\n");
-
-                    if (line.startsWith("</PubmedArticle>")){
-
-                        indexPubMedDocument(text.toString());
+    private PubMedDocumentIndexer(PubMedDocumentIndexer parent){
+        super(parent);
+        initParser();
+        initFields();
+    }
 
-                        text.setLength(0);
-                    }
-                    line = br.readLine();
-                }
+    @Override
+    public DocumentIndexer newWorker(){
+        return new PubMedDocumentIndexer(this);
+    }
 
-            } finally {
-                br.close();
-            }
-        } catch (Exception e){
-            System.out.println(" caught a " + e.getClass() +
-                    "\n with message: " + e.getMessage());
+    private void initParser() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        // the files declare the PubMed DTD, which must not be fetched
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new StringBuilder();
         }
     }
 
-    public void indexPubMedDocument(String text){
-        try {
-
-        //System.out.println(text);
-        org.w3c.dom.Document xmlDocument = builder.parse(new InputSource(new StringReader(text)));
-        Document doc = new Document();
-
-        String docid = getStringFromXml(xmlDocument,"/PubmedArticle/MedlineCitation/PMID");
-        //System.out.println(docid);
-        Field docnumField = new StringField("docnum", docid, Field.Store.YES);
+    private void initFields() {
+        doc = new Document();
+        docnumField = newStringField("docnum");
+        yearField = newStringField("year");
+        titleField = newTextField("title");
+        contentField = newTextField("content");
+        journalField = newTextField("journal");
+        authorsField = newTextField("authors");
+        allFields = newAllFields("title", "authors", "journal", "content");
         doc.add(docnumField);
-
-        String pubyear = getStringFromXml(xmlDocument,"/PubmedArticle/MedlineCitation/DateCreated/Year");
-        if (pubyear.isEmpty()) {
-            System.out.println(docid + " " + pubyear);
-        }
-        //Field yearIntField = new IntPoint("year", Integer.parseInt(pubyear));
-        //doc.add(yearIntField);
-        Field yearField = new StringField("year", pubyear, Field.Store.YES);
         doc.add(yearField);
-
-
-            //expression = "/PubmedArticle/MedlineCitation/Article/ArticleTitle";
-        //String title = xPath.compile(expression).evaluate(xmlDocument).trim();
-            // System.out.println(title);
-            //Field titleField = new TextField("title", title, Field.Store.YES);
-            //doc.add(titleField);
-
-        String title = getStringFromXml(xmlDocument, "/PubmedArticle/MedlineCitation/Article/ArticleTitle");
-        //System.out.println(title);
-        addTextFieldToDoc(doc, "title", title);
-
-
-        /*expression = "/PubmedArticle/MedlineCitation/Article/Abstract";
-        String content = xPath.compile(expression).evaluate(xmlDocument).trim();
-        //System.out.println(content);
-        Field textField = new TextField("content", content, Field.Store.YES);
-        doc.add(textField);
-          */
-
-        String content = getStringFromXml(xmlDocument, "/PubmedArticle/MedlineCitation/Article/Abstract");
-        addTextFieldToDoc(doc, "content", content);
-
-        String journal = getStringFromXml(xmlDocument, "/PubmedArticle/MedlineCitation/Article/Journal/Title");
-        addTextFieldToDoc(doc, "journal", journal);
-
-        String authors = getStringFromXml(xmlDocument, "/PubmedArticle/MedlineCitation/Article/AuthorList");
-        addTextFieldToDoc(doc, "authors", authors);
-
-        addTextFieldToDoc(doc, Lucene4IRConstants.FIELD_ALL, title + " " + authors + " "+ journal + " " + content );
-
-
-        /*
-        expression = "/PubmedArticle/MedlineCitation/Article/Journal/Title";
-        String journal = xPath.compile(expression).evaluate(xmlDocument).trim();
-
-        Field journalField = new TextField("journal", journal, Field.Store.YES);
+        doc.add(titleField);
+        doc.add(contentField);
         doc.add(journalField);
-        expression = "/PubmedArticle/MedlineCitation/Article/AuthorList";
-        String authors = xPath.compile(expression).evaluate(xmlDocument).trim();
-        //System.out.println(authors);
-        Field authorsField = new TextField("authors", authors, Field.Store.YES);
         doc.add(authorsField);
-*/
-        System.out.println("Indexing: "+ docid);
-        addDocumentToIndex(doc);
-        } catch (Exception e){
+        for (Field f : allFields) {
+            doc.add(f);
+        }
+    }
+
+    @Override
+    public boolean indexDocumentsFromFile(String filename){
+        // the file is parsed as one stream, so it is added to the metrics as a whole
+        long start = System.nanoTime();
+        long added = addNanos;
+        long before = articles;
+        boolean read = true;
+        try (BufferedReader br = openDocumentFile(filename)) {
+            indexPubMedDocuments(br);
+        } catch (IOException | XMLStreamException e){
             System.out.println(" caught a " + e.getClass() +
                     "\n with message: " + e.getMessage());
+            read = false;
         }
-
+        metrics.parsed(articles - before, new File(filename).length(), System.nanoTime() - start - (addNanos - added));
+        return read;
     }
 
-    public void addTextFieldToDoc(Document doc, String fieldname, String fielddata){
-        Field field;
-        if (indexPositions) {
-            field = new TermVectorEnabledTextField(fieldname, fielddata, Field.Store.YES);
-        } else {
-            field = new TextField(fieldname, fielddata, Field.Store.YES);
+    /**
+     * Each record is one &lt;PubmedArticle&gt; element, with the indentation of its lines removed.
+     * Only used when the records are parsed on other threads, see PipelineDocumentIndexer;
+     * otherwise each file is streamed through the parser as a whole.
+     */
+    protected void readDocumentRecords(String filename, Consumer<CharSequence> handler) throws IOException {
+        try (BufferedReader br = openDocumentFile(filename)) {
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null){
+                line = line.replaceAll("^\\s+","");
+                if (line.startsWith("<PubmedArticle>")) {
+                    text.setLength(0);
+                }
+                text.append(line).append("\n");
+
+                if (line.startsWith("</PubmedArticle>")){
+                    handler.accept(text.toString());
+                    text.setLength(0);
+                }
+            }
         }
-        doc.add(field);
     }
 
-    public String getStringFromXml(org.w3c.dom.Document xmlDocument, String expression){
-
-        String text = "";
+    public void indexDocumentRecord(CharSequence record){
         try {
-            text = xPath.compile(expression).evaluate(xmlDocument).trim();
-        } catch (Exception e){
+            indexPubMedDocuments(new StringReader(record.toString()));
+        } catch (XMLStreamException e){
             System.out.println(" caught a " + e.getClass() +
                     "\n with message: " + e.getMessage());
         }
-        return text;
+    }
 
+    /**
+     * Indexes every &lt;PubmedArticle&gt; read from in. Input that ends after an article,
+     * without closing the enclosing elements, is accepted as a truncated file.
+     */
+    public void indexPubMedDocuments(Reader in) throws XMLStreamException {
+        XMLStreamReader xml = inputFactory.createXMLStreamReader(in);
+        int depth = 0; // depth inside the current article, 0 when outside of one
+        try {
+            int capture = -1; // the value that text is being added to, if any
+            int captureDepth = 0;
+            boolean lineStart = false;
+
+            while (xml.hasNext()) {
+                switch (xml.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        lineStart = false;
+                        String name = xml.getLocalName();
+                        if (depth == 0) {
+                            if (!name.equals(ARTICLE)) {
+                                break;
+                            }
+                            startArticle();
+                        }
+                        if (depth == pathLengths.length) {
+                            pathLengths = Arrays.copyOf(pathLengths, depth * 2);
+                        }
+                        pathLengths[depth++] = path.length();
+                        path.append('/').append(name);
+                        if (capture < 0) {
+                            for (int i = 0; i < PATHS.length; i++) {
+                                // like XPath, only the first matching element counts
+                                if (!found[i] && PATHS[i].contentEquals(path)) {
+                                    found[i] = true;
+                                    capture = i;
+                                    captureDepth = depth;
+                                    break;
+                                }
+                            }
+                        }
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        lineStart = false;
+                        if (depth == 0) {
+                            break;
+                        }
+                        if (depth == captureDepth) {
+                            capture = -1;
+                            captureDepth = 0;
+                        }
+                        path.setLength(pathLengths[--depth]);
+                        if (depth == 0) {
+                            indexArticle();
+                        }
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (capture >= 0) {
+                            lineStart = appendText(xml, values[capture], lineStart);
+                        }
+                        break;
+
+                    default:
+                        lineStart = false;
+                        break;
+                }
+            }
+        } catch (XMLStreamException e){
+            if (depth > 0) {
+                throw e;
+            }
+        } finally {
+            xml.close();
+        }
     }
 
+    private void startArticle(){
+        path.setLength(0);
+        for (int i = 0; i < values.length; i++) {
+            values[i].setLength(0);
+            found[i] = false;
+        }
+    }
 
+    /**
+     * Appends the current text to value, leaving out the whitespace at the start of each line.
+     * Returns whether the text ended at the start of a line.
+     */
+    private static boolean appendText(XMLStreamReader xml, StringBuilder value, boolean lineStart){
+        char[] chars = xml.getTextCharacters();
+        int end = xml.getTextStart() + xml.getTextLength();
+        for (int i = xml.getTextStart(); i < end; i++) {
+            char c = chars[i];
+            if (lineStart && (c == ' ' || c == '\t' || c == '\u000B' || c == '\f' || c == '\r')) {
+                continue;
+            }
+            lineStart = (c == '\n');
+            value.append(c);
+        }
+        return lineStart;
+    }
+
+    private void indexArticle(){
+        String docid = values[PMID].toString().trim();
+        String pubyear = values[YEAR].toString().trim();
+        String title = values[TITLE].toString().trim();
+        String content = values[ABSTRACT].toString().trim();
+        String journal = values[JOURNAL].toString().trim();
+        String authors = values[AUTHORS].toString().trim();
+
+        docnumField.setStringValue(docid);
+        yearField.setStringValue(pubyear);
+        titleField.setStringValue(title);
+        contentField.setStringValue(content);
+        journalField.setStringValue(journal);
+        authorsField.setStringValue(authors);
+        setStringValues(allFields, title, authors, journal, content);
+
+        articles++;
+        addDocumentToIndex(doc);
+    }
 
 }
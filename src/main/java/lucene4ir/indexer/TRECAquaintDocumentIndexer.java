@@ -1,12 +1,9 @@
 package lucene4ir.indexer;
 
+import lucene4ir.IndexParams;
 import lucene4ir.Lucene4IRConstants;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
-import java.io.BufferedReader;
-import java.io.FileReader;
 
 import org.jsoup.safety.Whitelist;
 
@@ -20,14 +17,35 @@ public class TRECAquaintDocumentIndexer extends DocumentIndexer {
     private Field docnumField;
     private Field titleField;
     private Field textField;
-    private Field allField;
+    private Field[] allFields;
     private Field sourceField;
     private Field pubdateField;
     private Document doc;
 
-    public TRECAquaintDocumentIndexer(String indexPath, String tokenFilterFile, boolean positional){
-        super(indexPath, tokenFilterFile, positional);
+    public TRECAquaintDocumentIndexer(IndexParams p){
+        super(p);
 
+        initWhiteList();
+        doc = new Document();
+        initFields();
+        initAQUAINTDoc();
+    }
+
+    private TRECAquaintDocumentIndexer(TRECAquaintDocumentIndexer parent){
+        super(parent);
+
+        initWhiteList();
+        doc = new Document();
+        initFields();
+        initAQUAINTDoc();
+    }
+
+    @Override
+    public DocumentIndexer newWorker(){
+        return new TRECAquaintDocumentIndexer(this);
+    }
+
+    private void initWhiteList() {
         try {
             whiteList = Whitelist.relaxed();
             whiteList.addTags("docno");
@@ -40,27 +58,15 @@ public class TRECAquaintDocumentIndexer extends DocumentIndexer {
             System.out.println(" caught a " + e.getClass() +
                     "\n with message: " + e.getMessage());
         }
-
-        doc = new Document();
-        initFields();
-        initAQUAINTDoc();
     }
 
     private void initFields() {
-        docnumField = new StringField(Lucene4IRConstants.FIELD_DOCNUM, "", Field.Store.YES);
-        pubdateField = new StringField(Lucene4IRConstants.FIELD_PUBDATE, "", Field.Store.YES);
-        if(indexPositions){
-            titleField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            allField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-            sourceField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_SOURCE, "", Field.Store.YES);
-        }
-        else {
-            titleField = new TextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            allField = new TextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-            sourceField = new TextField(Lucene4IRConstants.FIELD_SOURCE, "", Field.Store.YES);
-        }
+        docnumField = newStringField(Lucene4IRConstants.FIELD_DOCNUM);
+        pubdateField = newStringField(Lucene4IRConstants.FIELD_PUBDATE);
+        titleField = newTextField(Lucene4IRConstants.FIELD_TITLE);
+        textField = newTextField(Lucene4IRConstants.FIELD_CONTENT);
+        sourceField = newTextField(Lucene4IRConstants.FIELD_SOURCE);
+        allFields = newAllFields(Lucene4IRConstants.FIELD_TITLE, Lucene4IRConstants.FIELD_CONTENT, Lucene4IRConstants.FIELD_SOURCE, Lucene4IRConstants.FIELD_PUBDATE);
     }
 
     private void initAQUAINTDoc() {
@@ -69,58 +75,34 @@ public class TRECAquaintDocumentIndexer extends DocumentIndexer {
         doc.add(textField);
         doc.add(sourceField);
         doc.add(pubdateField);
-        doc.add(allField);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
     }
 
-    public Document createTRECAQUAINTDocument(String docid, String pubdate, String source, String title, String content, String all){
+    public Document createTRECAQUAINTDocument(String docid, String pubdate, String source, String title, String content){
         doc.clear();
 
         docnumField.setStringValue(docid);
         titleField.setStringValue(title);
-        allField.setStringValue(all);
         textField.setStringValue(content);
         sourceField.setStringValue(source);
         pubdateField.setStringValue(pubdate);
+        setStringValues(allFields, title, content, source, pubdate);
 
         doc.add(docnumField);
         doc.add(pubdateField);
         doc.add(sourceField);
         doc.add(titleField);
         doc.add(textField);
-        doc.add(allField);
-        System.out.println("Adding document: " + docid + " Title: " + title);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
         return doc;
     }
 
-    public void indexDocumentsFromFile(String filename){
-        String line = "";
-        java.lang.StringBuilder text = new StringBuilder();
-
-        try {
-            BufferedReader br = openDocumentFile(filename);
-            try {
-                line = br.readLine();
-                while (line != null){
-
-                    if (line.startsWith("<DOC>")) {
-                        text = new StringBuilder();
-                    }
-                    text.append(System.lineSeparator() + line);
-
-                    if (line.startsWith("</DOC>")){
-                        extractFieldsFromXmlAndIndex(text.toString());
-
-                    }
-                    line = br.readLine();
-                }
-
-            } finally {
-                br.close();
-            }
-        } catch (Exception e){
-            System.out.println(" caught a " + e.getClass() +
-                    "\n with message: " + e.getMessage());
-        }
+    public void indexDocumentRecord(CharSequence record){
+        extractFieldsFromXmlAndIndex(record.toString());
     }
 
     public void extractFieldsFromXmlAndIndex(String xmlString){
@@ -135,7 +117,6 @@ public class TRECAquaintDocumentIndexer extends DocumentIndexer {
 
         docnum = getFieldText(jdoc, "docno").trim();
         title = getFieldText(jdoc, "headline");
-        System.out.println(title);
         if (title == "")
             title = getFieldText(jdoc, "slug");
         content = getFieldText(jdoc, "text");
@@ -147,8 +128,7 @@ public class TRECAquaintDocumentIndexer extends DocumentIndexer {
         if (docnum.startsWith("XIE"))
             source = "XIE";
 
-        String all = title + " " + content + " " + source + " " + pubdate;
-        doc = createTRECAQUAINTDocument(docnum,pubdate,source,title,content,all);
+        doc = createTRECAQUAINTDocument(docnum,pubdate,source,title,content);
         addDocumentToIndex(doc);
     }
 
@@ -1,25 +1,10 @@
 package lucene4ir.indexer;
 
+import lucene4ir.IndexParams;
 import lucene4ir.Lucene4IRConstants;
+import lucene4ir.utils.ByteCharSequence;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.StringReader;
 
 /**
  * Created by leif on 30/08/2016.
@@ -35,27 +20,51 @@ public class TRECNEWSDocumentIndexer extends DocumentIndexer {
     private Field allField;
     private Document doc;
 
-    public TRECNEWSDocumentIndexer(String indexPath, String tokenFilterFile, boolean positional) {
-        super(indexPath, tokenFilterFile, positional);
+    private static final int OTHER = 0;
+    private static final int DOCNO = 1;
+    private static final int TITLE = 2;
+    private static final int CONTENT = 3;
+    private static final int AUTHOR = 4;
 
+    // reused while scanning a record
+    private char[] buf = new char[1 << 16];
+    private int section;
+    private boolean inDoc;
+    private boolean authorSeen;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder docno = new StringBuilder();
+    private final StringBuilder title = new StringBuilder();
+    private final StringBuilder content = new StringBuilder();
+    private final StringBuilder author = new StringBuilder();
+    private final StringBuilder all = new StringBuilder();
+
+    public TRECNEWSDocumentIndexer(IndexParams p){
+        super(p);
+
+        doc = new Document();
+        initFields();
+        initNEWSDoc();
+    }
+
+    private TRECNEWSDocumentIndexer(TRECNEWSDocumentIndexer parent){
+        super(parent);
         doc = new Document();
         initFields();
         initNEWSDoc();
     }
 
+    @Override
+    public DocumentIndexer newWorker(){
+        return new TRECNEWSDocumentIndexer(this);
+    }
+
     private void initFields() {
-        docnumField = new StringField(Lucene4IRConstants.FIELD_DOCNUM, "", Field.Store.YES);
-        if (indexPositions) {
-            titleField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            allField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-            authorField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_AUTHOR, "", Field.Store.YES);
-        } else {
-            titleField = new TextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            allField = new TextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-            authorField = new TextField(Lucene4IRConstants.FIELD_AUTHOR, "", Field.Store.YES);
-        }
+        docnumField = newStringField(Lucene4IRConstants.FIELD_DOCNUM);
+        titleField = newTextField(Lucene4IRConstants.FIELD_TITLE);
+        textField = newTextField(Lucene4IRConstants.FIELD_CONTENT);
+        authorField = newTextField(Lucene4IRConstants.FIELD_AUTHOR);
+        // the text of the whole DOC rather than of the other fields, so a single value
+        allField = newAllFields(1)[0];
     }
 
     private void initNEWSDoc() {
@@ -83,89 +92,260 @@ public class TRECNEWSDocumentIndexer extends DocumentIndexer {
         return doc;
     }
 
-    public void indexDocumentsFromFile(String filename) {
+    /**
+     * Scans the record in one pass over a reused char buffer, without building a DOM.
+     * The fields get the same text as when the record was cleaned with regular expressions,
+     * parsed as XML and queried with XPath: the title, content and all fields join the text
+     * nodes of the title elements (HEAD, HL, HEADLINE, DOCTITLE, HT), of TEXT and of the
+     * whole DOC with spaces, the author is the first text node of BYLINE or SO, and
+     * entities, "&amp;", FB94 P= and ID= attributes and the FBIS &lt;3&gt; tags are removed.
+     * Only a removal that would have made a new match for a later one is not repeated.
+     */
+    public void indexDocumentRecord(CharSequence record) {
+        int n = record.length();
+        if (buf.length < n) {
+            buf = new char[Math.max(n, buf.length * 2)];
+        }
+        if (record instanceof ByteCharSequence) {
+            ((ByteCharSequence) record).getChars(0, n, buf, 0);
+        } else {
+            record.toString().getChars(0, n, buf, 0);
+        }
+        scanRecord(n);
+
+        String title = this.title.toString().trim();
+        createNEWSDocument(docno.toString().trim(), author.toString().trim(), title,
+                content.toString().trim(), all.toString().trim());
+        addDocumentToIndex(doc);
+    }
 
-        String line;
-        java.lang.StringBuilder text = new StringBuilder();
+    private void scanRecord(int n) {
+        docno.setLength(0);
+        title.setLength(0);
+        content.setLength(0);
+        author.setLength(0);
+        all.setLength(0);
+        text.setLength(0);
 
+        int depth = 0;
+        boolean docnoSeen = false;
+        boolean cdata = false;
+        // a CDATA section joins the text around it into one node, of which the XPath
+        // queries only returned the first part, up to or including the CDATA section
+        boolean skipToNodeEnd = false;
+        section = OTHER;
+        inDoc = false;
+        authorSeen = false;
 
-        try (BufferedReader br = openDocumentFile(filename)) {
-            line = br.readLine();
-            while (line != null) {
-                if (line.startsWith("<DOC>")) {
-                    text = new StringBuilder();
+        int i = 0;
+        while (i < n) {
+            char c = buf[i];
+            if (cdata && c == ']' && startsWith(i, n, "]]>")) {
+                cdata = false;
+                skipToNodeEnd = true;
+                i += 3;
+                continue;
+            } else if (c == '<' && !cdata) {
+                if (startsWith(i, n, "<3>")) {
+                    i += 3;
+                    continue;
+                }
+                if (startsWith(i, n, "</3>")) {
+                    i += 4;
+                    continue;
+                }
+                if (startsWith(i, n, "<![CDATA[")) {
+                    cdata = true;
+                    skipToNodeEnd = text.length() > 0;
+                    i += 9;
+                    continue;
+                }
+                if (startsWith(i, n, "<!--")) {
+                    skipToNodeEnd = false;
+                    endTextNode();
+                    i = skipPast(i + 4, n, "-->");
+                    continue;
+                }
+                if (startsWith(i, n, "<!") || startsWith(i, n, "<?")) {
+                    skipToNodeEnd = false;
+                    endTextNode();
+                    i = skipTag(i + 2, n);
+                    continue;
                 }
-                text.append(line).append("\n");
 
-                if (line.startsWith("</DOC>")) {
+                boolean endTag = i + 1 < n && buf[i + 1] == '/';
+                int nameStart = endTag ? i + 2 : i + 1;
+                int nameEnd = nameStart;
+                while (nameEnd < n && isNameChar(buf[nameEnd])) {
+                    nameEnd++;
+                }
+                if (nameEnd > nameStart && !Character.isDigit(buf[nameStart])) {
+                    skipToNodeEnd = false;
+                    endTextNode();
+                    i = skipTag(nameEnd, n);
+                    boolean emptyTag = !endTag && buf[i - 2] == '/';
+                    if (endTag) {
+                        depth--;
+                        if (depth == 1 && section == DOCNO) {
+                            docnoSeen = true;
+                        }
+                        if (depth <= 1) {
+                            section = OTHER;
+                        }
+                        if (depth == 0) {
+                            inDoc = false;
+                        }
+                    } else {
+                        if (depth == 0) {
+                            inDoc = regionEquals(nameStart, nameEnd, "DOC");
+                        } else if (depth == 1) {
+                            section = section(nameStart, nameEnd, docnoSeen);
+                        }
+                        if (!emptyTag) {
+                            depth++;
+                        } else if (depth == 1) {
+                            docnoSeen |= section == DOCNO;
+                            section = OTHER;
+                        }
+                    }
+                    continue;
+                }
+                // not markup, keep the '<' as text
+            } else if (c == '&') {
+                int j = i + 1;
+                while (j < n && isAsciiLetterOrDigit(buf[j])) {
+                    j++;
+                }
+                i = (j > i + 1 && j < n && buf[j] == ';') ? j + 1 : i + 1;
+                continue;
+            } else if (c == 'P' && i + 2 < n && buf[i + 1] == '=' && isAsciiDigit(buf[i + 2])) {
+                i += 2;
+                while (i < n && isAsciiDigit(buf[i])) {
+                    i++;
+                }
+                continue;
+            } else if (c == 'I' && i + 3 < n && buf[i + 1] == 'D' && buf[i + 2] == '=' && isIdChar(buf[i + 3])) {
+                i += 3;
+                while (i < n && isIdChar(buf[i])) {
+                    i++;
+                }
+                continue;
+            }
+            if (!skipToNodeEnd) {
+                text.append(c);
+            }
+            i++;
+        }
+        endTextNode();
+    }
 
-                    DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-                    DocumentBuilder builder = builderFactory.newDocumentBuilder();
+    /**
+     * Adds the text node that has just ended to the fields it belongs to.
+     */
+    private void endTextNode() {
+        if (text.length() == 0) {
+            return;
+        }
+        if (inDoc) {
+            all.append(' ').append(text);
+            switch (section) {
+                case DOCNO:
+                    docno.append(text);
+                    break;
+                case TITLE:
+                    title.append(' ').append(text);
+                    break;
+                case CONTENT:
+                    content.append(' ').append(text);
+                    break;
+                case AUTHOR:
+                    if (!authorSeen) {
+                        author.append(text);
+                        authorSeen = true;
+                    }
+                    break;
+            }
+        }
+        text.setLength(0);
+    }
 
+    private int section(int nameStart, int nameEnd, boolean docnoSeen) {
+        if (regionEquals(nameStart, nameEnd, "DOCNO")) {
+            return docnoSeen ? OTHER : DOCNO;
+        }
+        if (regionEquals(nameStart, nameEnd, "TEXT")) {
+            return CONTENT;
+        }
+        if (regionEquals(nameStart, nameEnd, "HEAD") || regionEquals(nameStart, nameEnd, "HL")
+                || regionEquals(nameStart, nameEnd, "HEADLINE") || regionEquals(nameStart, nameEnd, "DOCTITLE")
+                || regionEquals(nameStart, nameEnd, "HT")) {
+            return TITLE;
+        }
+        if (regionEquals(nameStart, nameEnd, "BYLINE") || regionEquals(nameStart, nameEnd, "SO")) {
+            return AUTHOR;
+        }
+        return OTHER;
+    }
 
-                    String docString = text.toString();
+    /**
+     * Returns the position after the '&gt;' that ends the tag, skipping quoted attribute values.
+     */
+    private int skipTag(int i, int n) {
+        char quote = 0;
+        while (i < n) {
+            char c = buf[i++];
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return n;
+    }
 
-                    // Remove all escaped entities from the string.
-                    docString = docString.replaceAll("&[a-zA-Z0-9]+;", "");
-                    docString = docString.replaceAll("&", "");
-                    // Remove P and ID attributes for FB94
-                    docString = docString.replaceAll("P=[0-9]+", "");
-                    docString = docString.replaceAll("ID=[-a-zA-Z0-9]+", "");
-                    // Remove some random tag for FBIS
-                    docString = docString.replaceAll("<3>", "");
-                    docString = docString.replaceAll("</3>", "");
+    private int skipPast(int i, int n, String end) {
+        while (i < n) {
+            if (startsWith(i, n, end)) {
+                return i + end.length();
+            }
+            i++;
+        }
+        return n;
+    }
 
-                    org.w3c.dom.Document xmlDocument = builder.parse(new InputSource(new StringReader(docString)));
-                    XPath xPath = XPathFactory.newInstance().newXPath();
+    private boolean startsWith(int i, int n, String s) {
+        if (i + s.length() > n) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (buf[i + k] != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                    String expression = "/DOC/DOCNO";
-                    String docid = xPath.compile(expression).evaluate(xmlDocument).trim();
+    private boolean regionEquals(int start, int end, String s) {
+        return end - start == s.length() && startsWith(start, end, s);
+    }
 
-                    // The title can either be a HEAD tag or a HL tag.
-                    expression = "/DOC/HEAD/descendant-or-self::*/text()|/DOC/HL/descendant-or-self::*/text()|/DOC/HEADLINE/descendant-or-self::*/text()|/DOC/DOCTITLE/descendant-or-self::*/text()|/DOC/HT/descendant-or-self::*/text()";
-                    //String title = xPath.compile(expression).evaluate(xmlDocument).trim();
-                    StringBuilder title = new StringBuilder();
-                    NodeList nodeList = (NodeList) xPath.compile(expression).evaluate(xmlDocument, XPathConstants.NODESET);
-                    for (int i = 0; i < nodeList.getLength(); i++) {
-                        Node currentNode = nodeList.item(i);
-                        title.append(" ").append(currentNode.getNodeValue());
-                    }
-                    title = new StringBuilder(title.toString().trim());
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':';
+    }
 
-                    //String title = xPath.compile(expression).evaluate(xmlDocument).trim();
-                    System.out.println(docid + " :" + title + ":");
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 
-                    expression = "/DOC/TEXT/descendant-or-self::*/text()";
-                    StringBuilder content = new StringBuilder();
-                    nodeList = (NodeList) xPath.compile(expression).evaluate(xmlDocument, XPathConstants.NODESET);
-                    for (int i = 0; i < nodeList.getLength(); i++) {
-                        Node currentNode = nodeList.item(i);
-                        content.append(" ").append(currentNode.getNodeValue());
-                    }
-                    content = new StringBuilder(content.toString().trim());
-
-                    // Similar to title, the author field can be represented as multiple tags.
-                    expression = "/DOC/BYLINE/descendant-or-self::*/text()|/DOC/SO/descendant-or-self::*/text()";
-                    String author = xPath.compile(expression).evaluate(xmlDocument).trim();
-
-                    expression = "/DOC/descendant-or-self::*/text()";
-                    StringBuilder all = new StringBuilder();
-                    nodeList = (NodeList) xPath.compile(expression).evaluate(xmlDocument, XPathConstants.NODESET);
-                    for (int i = 0; i < nodeList.getLength(); i++) {
-                        Node currentNode = nodeList.item(i);
-                        all.append(" ").append(currentNode.getNodeValue());
-                    }
-                    all = new StringBuilder(all.toString().trim());
-                    createNEWSDocument(docid, author, title.toString(), content.toString(), all.toString());
-                    addDocumentToIndex(doc);
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return isAsciiDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
 
-                    text = new StringBuilder();
-                }
-                line = br.readLine();
-            }
-        } catch (IOException | SAXException | XPathExpressionException | ParserConfigurationException e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
+    private static boolean isIdChar(char c) {
+        return isAsciiLetterOrDigit(c) || c == '-';
     }
 }
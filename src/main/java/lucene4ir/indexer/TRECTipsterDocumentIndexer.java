@@ -1,13 +1,11 @@
 package lucene4ir.indexer;
 
+import lucene4ir.IndexParams;
 import lucene4ir.Lucene4IRConstants;
 import org.apache.lucene.document.*;
 import org.jsoup.Jsoup;
 import org.jsoup.select.Elements;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-
 /**
  * Indexer for TIPSTER test collections relying on JSOUP.
  *
@@ -29,118 +27,93 @@ public class TRECTipsterDocumentIndexer extends DocumentIndexer {
     private Field docnumField;
     private Field titleField;
     private Field textField;
-    private Field allField;
+    private Field[] allFields;
     private Document doc;
 
-    public TRECTipsterDocumentIndexer(String indexPath, String tokenFilterFile, boolean positional){
-        super(indexPath, tokenFilterFile, positional);
+    public TRECTipsterDocumentIndexer(IndexParams p){
+        super(p);
 
         doc = new Document();
         initFields();
         initTipsterDoc();
     }
 
+    private TRECTipsterDocumentIndexer(TRECTipsterDocumentIndexer parent){
+        super(parent);
+        doc = new Document();
+        initFields();
+        initTipsterDoc();
+    }
+
+    @Override
+    public DocumentIndexer newWorker(){
+        return new TRECTipsterDocumentIndexer(this);
+    }
+
     private void initFields() {
-        docnumField = new StringField(Lucene4IRConstants.FIELD_DOCNUM, "", Field.Store.YES);
-        if(indexPositions){
-            titleField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            allField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-        }
-        else {
-            titleField = new TextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            allField = new TextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-        }
+        docnumField = newStringField(Lucene4IRConstants.FIELD_DOCNUM);
+        titleField = newTextField(Lucene4IRConstants.FIELD_TITLE);
+        textField = newTextField(Lucene4IRConstants.FIELD_CONTENT);
+        allFields = newAllFields(Lucene4IRConstants.FIELD_TITLE, Lucene4IRConstants.FIELD_CONTENT);
     }
 
     private void initTipsterDoc() {
         doc.add(docnumField);
         doc.add(titleField);
         doc.add(textField);
-        doc.add(allField);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
     }
 
-    public Document createTipsterDocument(String docid, String title, String content, String all){
+    public Document createTipsterDocument(String docid, String title, String content){
         doc.clear();
 
         docnumField.setStringValue(docid);
         titleField.setStringValue(title);
-        allField.setStringValue(all);
         textField.setStringValue(content);
+        setStringValues(allFields, title, content);
 
         doc.add(docnumField);
         doc.add(titleField);
         doc.add(textField);
-        doc.add(allField);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
 
         return doc;
     }
 
-    public void indexDocumentsFromFile(String filename){
+    public void indexDocumentRecord(CharSequence record){
 
-        String line = "";
+        String docnum = "";
+        StringBuilder title = new StringBuilder();
+        StringBuilder content = new StringBuilder();
 
         try {
-            BufferedReader br = openDocumentFile(filename);
-            try {
-
-                line = br.readLine();
-                String docnum = "";
-                StringBuilder title = new StringBuilder();
-                StringBuilder text = new StringBuilder();
-                StringBuilder content = new StringBuilder();
-
-                while (line != null){
-
-                    if (line.startsWith("<DOC>")) {
-                        text = new StringBuilder();
-                        text.append("<DOC>");
-                    }
-                    text.append(line + "\n");
-
-                    if (line.startsWith("</DOC>")){
-
-                        text.append("</DOC>");
-
-                        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(text.toString());
-
-                        Elements docidElements = jsoupDoc.getElementsByTag("DOCNO");
-                        if (docidElements!=null && docidElements.size()==1) {
-                            docnum = docidElements.text();
-                        }
-
-                        for (String tag : titleTags) {
-                            Elements titleElements = jsoupDoc.select(tag);
-                            if (titleElements!=null) {
-                                System.out.println(titleElements.size() + " " + titleElements.text());
-                                title.append(" ").append(titleElements.text());
-                            }
-                        }
-
-                        for (String tag : contentTags) {
-                            Elements contentElements = jsoupDoc.getElementsByTag(tag);
-                            if (contentElements!=null) {
-                                    content.append(" ").append(contentElements.text());
-                            }
-                        }
-
-                        String all = title.toString().trim() + " " + content.toString().trim();
-                        createTipsterDocument(docnum.trim(), title.toString().trim(), content.toString().trim(), all);
-                        addDocumentToIndex(doc);
-
-                        docnum = "";
-                        text = new StringBuilder();
-                        content = new StringBuilder();
-                        title = new StringBuilder();
-                    }
-
-                    line = br.readLine();
+            org.jsoup.nodes.Document jsoupDoc = Jsoup.parse("<DOC>" + record + "</DOC>");
+
+            Elements docidElements = jsoupDoc.getElementsByTag("DOCNO");
+            if (docidElements!=null && docidElements.size()==1) {
+                docnum = docidElements.text();
+            }
+
+            for (String tag : titleTags) {
+                Elements titleElements = jsoupDoc.select(tag);
+                if (titleElements!=null) {
+                    title.append(" ").append(titleElements.text());
                 }
+            }
 
-            } finally {
-                br.close();
+            for (String tag : contentTags) {
+                Elements contentElements = jsoupDoc.getElementsByTag(tag);
+                if (contentElements!=null) {
+                        content.append(" ").append(contentElements.text());
+                }
             }
+
+            createTipsterDocument(docnum.trim(), title.toString().trim(), content.toString().trim());
+            addDocumentToIndex(doc);
         } catch (Exception e){
             e.printStackTrace();
             System.exit(1);
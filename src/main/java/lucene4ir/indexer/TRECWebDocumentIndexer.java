@@ -1,20 +1,17 @@
 package lucene4ir.indexer;
 
+import lucene4ir.IndexParams;
 import lucene4ir.Lucene4IRConstants;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
-import java.io.*;
-import java.util.ListIterator;
-import java.util.zip.GZIPInputStream;
+import lucene4ir.utils.HtmlTextExtractor;
 
 /**
- * Indexer for TRECWEB test collections relying on JSOUP.
+ * Indexer for TRECWEB test collections (WT10g, GOV2).
+ * The page text is taken with HtmlTextExtractor, leaving out scripts and styles,
+ * and progress is reported for the whole build (see IndexingReporter) rather than for each page.
+ * With dedup set, duplicate pages are skipped, or indexed with the docnum of the page
+ * they duplicate in duplicateOf (see DuplicateDetector).
  *
  * Created by kojayboy 28/07/2017.
  */
@@ -23,41 +20,41 @@ public class TRECWebDocumentIndexer extends DocumentIndexer {
     private Field docnumField;
     private Field titleField;
     private Field textField;
-    private Field allField;
+    private Field[] allFields;
     private Field urlField;
     private Field dochdrField;
+    private Field duplicateOfField;
     private Document doc;
 
-    private static String [] contentTags = {
-            "HTML"
-    };
-    private static String [] titleTags = {
-            "title"
-    };
+    private final HtmlTextExtractor html = new HtmlTextExtractor();
 
-    public TRECWebDocumentIndexer(String indexPath, String tokenFilterFile, boolean pos){
-        super(indexPath, tokenFilterFile, pos);
+    public TRECWebDocumentIndexer(IndexParams p){
+        super(p);
         doc = new Document();
         initFields();
         initWebDoc();
     }
 
+    private TRECWebDocumentIndexer(TRECWebDocumentIndexer parent){
+        super(parent);
+        doc = new Document();
+        initFields();
+        initWebDoc();
+    }
+
+    @Override
+    public DocumentIndexer newWorker(){
+        return new TRECWebDocumentIndexer(this);
+    }
+
     private void initFields() {
-        docnumField = new StringField(Lucene4IRConstants.FIELD_DOCNUM, "", Field.Store.YES);
-        if(indexPositions){
-            titleField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            allField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-            urlField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_URL, "", Field.Store.YES);
-            dochdrField = new TermVectorEnabledTextField(Lucene4IRConstants.FIELD_DOCHDR, "", Field.Store.YES);
-        }
-        else {
-            titleField = new TextField(Lucene4IRConstants.FIELD_TITLE, "", Field.Store.YES);
-            textField = new TextField(Lucene4IRConstants.FIELD_CONTENT, "", Field.Store.YES);
-            allField = new TextField(Lucene4IRConstants.FIELD_ALL, "", Field.Store.YES);
-            urlField = new TextField(Lucene4IRConstants.FIELD_URL, "", Field.Store.YES);
-            dochdrField = new TextField(Lucene4IRConstants.FIELD_DOCHDR, "", Field.Store.YES);
-        }
+        docnumField = newStringField(Lucene4IRConstants.FIELD_DOCNUM);
+        titleField = newTextField(Lucene4IRConstants.FIELD_TITLE);
+        textField = newTextField(Lucene4IRConstants.FIELD_CONTENT);
+        urlField = newTextField(Lucene4IRConstants.FIELD_URL);
+        dochdrField = newTextField(Lucene4IRConstants.FIELD_DOCHDR);
+        allFields = newAllFields(Lucene4IRConstants.FIELD_TITLE, Lucene4IRConstants.FIELD_CONTENT, Lucene4IRConstants.FIELD_DOCHDR, Lucene4IRConstants.FIELD_URL);
+        duplicateOfField = newStringField(Lucene4IRConstants.FIELD_DUPLICATE_OF);
     }
 
     private void initWebDoc() {
@@ -66,115 +63,131 @@ public class TRECWebDocumentIndexer extends DocumentIndexer {
         doc.add(textField);
         doc.add(urlField);
         doc.add(dochdrField);
-        doc.add(allField);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
     }
 
-    public Document createTRECWebDocument(String docid, String url, String dochdr, String title, String content, String all){
+    public Document createTRECWebDocument(String docid, String url, String dochdr, String title, String content){
         doc.clear();
 
         docnumField.setStringValue(docid);
         titleField.setStringValue(title);
-        allField.setStringValue(all);
         textField.setStringValue(content);
         urlField.setStringValue(url);
         dochdrField.setStringValue(dochdr);
+        setStringValues(allFields, title, content, dochdr, url);
 
         doc.add(docnumField);
         doc.add(urlField);
         doc.add(titleField);
         doc.add(textField);
         doc.add(dochdrField);
-        doc.add(allField);
-        System.out.println("Adding page: "+ url + " #"  + docid + " Title: " + title);
+        for (Field f : allFields) {
+            doc.add(f);
+        }
         return doc;
     }
 
-    public void indexDocumentsFromFile(String filename){
+    /**
+     * Takes DOCNO and DOCHDR straight from the record text, and gives only the page that
+     * follows them to the HTML text extractor.
+     */
+    public void indexDocumentRecord(CharSequence record){
+        String docnum = textBetween(record, "<DOCNO>", "</DOCNO>").trim();
+
+        int bodyStart = endOf(record, "</DOCNO>");
+        bodyStart = Math.max(bodyStart, endOf(record, "</DOCOLDNO>"));
+        String dochdr = "";
+        String url = "";
+        int hdrStart = indexOf(record, "<DOCHDR>", 0);
+        int hdrEnd = hdrStart < 0 ? -1 : indexOf(record, "</DOCHDR>", hdrStart);
+        if (hdrEnd >= 0) {
+            // the header is plain text: the url and crawl details, then the HTTP response headers
+            dochdr = collapseWhitespace(record, hdrStart + "<DOCHDR>".length(), hdrEnd);
+            int space = dochdr.indexOf(' ');
+            url = space < 0 ? dochdr : dochdr.substring(0, space);
+            bodyStart = Math.max(bodyStart, hdrEnd + "</DOCHDR>".length());
+        }
+        int bodyEnd = lastIndexOf(record, "</DOC>");
+        if (bodyEnd < bodyStart) {
+            bodyEnd = record.length();
+        }
 
-        String docnum="";
-        String title="";
-        String content="";
-        String dochdr="";
-        String url="";
+        html.extract(record, bodyStart, bodyEnd);
+        String title = html.getTitle();
+        String content = html.getText();
 
-        String line = "";
-        StringBuilder text = new StringBuilder();
+        String original = duplicates == null ? null : duplicates.check(docnum, content);
+        if (original != null && duplicates.skipsDuplicates()) {
+            return;
+        }
 
-        try {
-            BufferedReader br;
-            if(filename.endsWith(".gz")) {
-                InputStream fileStream = new FileInputStream(filename);
-                InputStream gzipStream = new GZIPInputStream(fileStream);
-                Reader decoder = new InputStreamReader(gzipStream, "UTF-8");
-                br = new BufferedReader(decoder);
-            }
-            else
-                br = new BufferedReader(new FileReader(filename));
-
-            try {
-                line = br.readLine();
-                while (line != null){
-                    if (line.startsWith("<DOC>")) {
-                        text = new StringBuilder();
-                    }
-                    text.append(line + "\n");
-
-                    if (line.startsWith("</DOC>")){
-
-                        System.out.println("Docnum");
-                        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(text.toString());
-                        Elements docnoElements = jsoupDoc.getElementsByTag("DOCNO");
-                        if (docnoElements!=null && docnoElements.size()==1) {
-                            String docno = docnoElements.text();
-                            docnum=docno;
-                        }
-
-                        System.out.println("DocHdr");
-                        StringBuilder dochdrBuilder = new StringBuilder();
-                        Elements dochdrElements = jsoupDoc.getElementsByTag("DOCHDR");
-                        if (dochdrElements!=null) {
-                            ListIterator<Element> elIterator = dochdrElements.listIterator();
-                            while (elIterator.hasNext())
-                                dochdrBuilder.append(" ").append(elIterator.next().text());
-                            dochdr=dochdrBuilder.toString();
-                            url=dochdrBuilder.toString().split(" ")[1];
-                        }
-
-                        System.out.println("Content");
-                        StringBuilder contentBuilder = new StringBuilder();
-                        Elements contentElements = jsoupDoc.getElementsByTag("HTML");
-                        if (contentElements!=null) {
-                            ListIterator<Element> elIterator = contentElements.listIterator();
-                            while (elIterator.hasNext())
-                                contentBuilder.append(" ").append(elIterator.next().text());
-                            content=contentBuilder.toString();
-                        }
-
-                        System.out.println("Title");
-                        StringBuilder titleBuilder = new StringBuilder();
-                        Elements titleElements = jsoupDoc.getElementsByTag("TITLE");
-                        if (titleElements!=null) {
-                            ListIterator<Element> elIterator = titleElements.listIterator();
-                            while (elIterator.hasNext())
-                                titleBuilder.append(" ").append(elIterator.next().text());
-                            title=titleBuilder.toString();
-                        }
-
-                        String all = title + " " + content + " " + dochdr + " " + url;
-                        doc = createTRECWebDocument(docnum,url,dochdr,title,content,all);
-                        text = new StringBuilder();
-                        addDocumentToIndex(doc);
-                        System.out.println("Final");
-                    }
-                    line = br.readLine();
+        doc = createTRECWebDocument(docnum,url,dochdr,title,content);
+        if (original != null) {
+            duplicateOfField.setStringValue(original);
+            doc.add(duplicateOfField);
+        }
+        addDocumentToIndex(doc);
+    }
+
+    private static String textBetween(CharSequence record, String open, String close){
+        int start = indexOf(record, open, 0);
+        if (start < 0) {
+            return "";
+        }
+        start += open.length();
+        int end = indexOf(record, close, start);
+        return end < 0 ? "" : record.subSequence(start, end).toString();
+    }
+
+    private static String collapseWhitespace(CharSequence record, int start, int end){
+        StringBuilder sb = new StringBuilder(end - start);
+        boolean space = false;
+        for (int i = start; i < end; i++) {
+            char c = record.charAt(i);
+            if (c <= ' ') {
+                space = true;
+            } else {
+                if (space && sb.length() > 0) {
+                    sb.append(' ');
                 }
+                space = false;
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int endOf(CharSequence record, String tag){
+        int i = indexOf(record, tag, 0);
+        return i < 0 ? 0 : i + tag.length();
+    }
+
+    private static int indexOf(CharSequence record, String s, int from){
+        for (int i = Math.max(from, 0); i + s.length() <= record.length(); i++) {
+            if (regionMatches(record, i, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(CharSequence record, String s){
+        for (int i = record.length() - s.length(); i >= 0; i--) {
+            if (regionMatches(record, i, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-            } finally {
-                br.close();
+    private static boolean regionMatches(CharSequence record, int i, String s){
+        for (int k = 0; k < s.length(); k++) {
+            if (record.charAt(i + k) != s.charAt(k)) {
+                return false;
             }
-        } catch (Exception e){
-            System.out.println(" caught a " + e.getClass() +
-                    "\n with message: " + e.getMessage());
         }
+        return true;
     }
-}
\ No newline at end of file
+}
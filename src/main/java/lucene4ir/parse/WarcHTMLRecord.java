@@ -242,9 +242,29 @@ public class WarcHTMLRecord {
 		return htmlDocument.text();
 	}
 
+	/**
+	 * Gets the anchor text of each link of the page, with the normalized URL it
+	 * links to (call convertHTMLToDoc first). Links with the same text keep only
+	 * one of their URLs, see getURLOutLinksWithAltText for all of them
+	 * @return
+	 */
 	public HashMap <String , String> getURLOutLinksAndAltText()
 	{
 		HashMap<String, String> urlAltText = new HashMap<String, String>();
+		for (String[] link : getURLOutLinksWithAltText())
+			urlAltText.put(link[1], link[0]);
+		return urlAltText;
+
+	}
+
+	/**
+	 * Gets every link of the page with anchor text, in the order of the page, as
+	 * the normalized URL it links to and its text (call convertHTMLToDoc first)
+	 * @return
+	 */
+	public Vector<String[]> getURLOutLinksWithAltText()
+	{
+		Vector<String[]> links = new Vector<String[]>();
 		String text,http;
 		String baseURL = getTargetURI();
 		
@@ -254,16 +274,13 @@ public class WarcHTMLRecord {
 			http = link.attr("href");
 			if(text.length() > 0 && http.length()>0)
 			{
-				if (http.charAt(0) == '/'  || http.charAt(0) == '#')
-					http=baseURL+http.substring(1);
-				if (http.startsWith("../"))
-					http=baseURL+http.substring(3);
-				if (http.startsWith("./"))
-					http=baseURL+http.substring(2);
-				urlAltText.put(text, http);
+				// relative links are resolved against the page, as in getURLOutlinks
+				http=getNormalizedContentURL(baseURL, http.trim());
+				if (HTTP_START_PATTERN.matcher(http).matches())
+					links.add(new String[] {http, text});
 			}
 		}
-		return urlAltText;
+		return links;
 
 	}
 
@@ -0,0 +1,173 @@
+package parse;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads WARC records from a stream through one large, reused byte buffer.
+ *
+ * Header lines are found by searching the buffer for line feeds, and only the header
+ * lines are decoded into Strings; the record content is copied out of the buffer (or
+ * read straight from the stream when it is larger) without looking at its bytes.
+ * Records are parsed as WarcRecord.readNextWarcRecord parses them, including its
+ * handling of the blank lines in malformed ClueWeb09 headers, but a reader keeps all
+ * of its state to itself, so readers on different threads do not interfere.
+ */
+public class WarcReader implements Closeable {
+
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private final InputStream in;
+	private byte[] buf;
+	private int pos = 0;
+	private int limit = 0;
+	private boolean eof = false;
+
+	public WarcReader(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	public WarcReader(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buf = new byte[bufferSize];
+	}
+
+	/**
+	 * Opens a WARC file, decompressing it if its name ends with .gz.
+	 */
+	public static WarcReader open(String filename) throws IOException {
+		InputStream in = new FileInputStream(filename);
+		if (filename.endsWith(".gz")) {
+			in = new GZIPInputStream(in, 1 << 16);
+		}
+		return new WarcReader(in);
+	}
+
+	/**
+	 * Returns the next record, or null at the end of the stream.
+	 */
+	public WarcRecord next() throws IOException {
+		// find the WARC version line that starts the record
+		String line;
+		do {
+			line = readLine();
+			if (line == null) {
+				return null;
+			}
+		} while (!line.startsWith(WarcRecord.WARC_VERSION));
+
+		// read until we have seen Content-Length and then an empty line
+		WarcRecord record = new WarcRecord();
+		int contentLength = -1;
+		while (true) {
+			line = readLine();
+			if (line == null) {
+				return null;
+			}
+			if (line.isEmpty()) {
+				if (contentLength >= 0) {
+					break;
+				}
+				continue;
+			}
+			record.addHeaderLine(line);
+			if (line.startsWith("Content-Length")) {
+				String[] parts = line.split(":", 2);
+				if (parts.length == 2 && parts[0].equals("Content-Length")) {
+					try {
+						contentLength = Integer.parseInt(parts[1].trim());
+					} catch (NumberFormatException e) {
+						contentLength = -1;
+					}
+				}
+			}
+		}
+
+		// like readNextWarcRecord, drop pairs of bytes that start with CR or end with LF
+		while (contentLength > 0 && fill(2) && (buf[pos] == '\r' || buf[pos + 1] == '\n')) {
+			pos += 2;
+		}
+
+		byte[] content = new byte[contentLength];
+		int n = Math.min(contentLength, limit - pos);
+		System.arraycopy(buf, pos, content, 0, n);
+		pos += n;
+		while (n < contentLength) {
+			int read = in.read(content, n, contentLength - n);
+			if (read < 0) {
+				eof = true;
+				if (n == 0) {
+					return null;
+				}
+				content = Arrays.copyOf(content, n);
+				break;
+			}
+			n += read;
+		}
+		record.setContent(content);
+		return record;
+	}
+
+	/**
+	 * Returns the next line, trimmed, or null at the end of the stream.
+	 */
+	private String readLine() throws IOException {
+		int searched = pos;
+		while (true) {
+			for (int i = searched; i < limit; i++) {
+				if (buf[i] == '\n') {
+					String line = new String(buf, pos, i - pos, StandardCharsets.UTF_8).trim();
+					pos = i + 1;
+					return line;
+				}
+			}
+			int buffered = limit - pos;
+			if (!fill(buffered + 1)) {
+				if (limit == pos) {
+					return null;
+				}
+				String line = new String(buf, pos, limit - pos, StandardCharsets.UTF_8).trim();
+				pos = limit;
+				return line;
+			}
+			searched = pos + buffered;
+		}
+	}
+
+	/**
+	 * Makes at least the given number of bytes available from pos, moving the unread
+	 * bytes to the start of the buffer and growing it if needed.
+	 * Returns false if the stream ends first.
+	 */
+	private boolean fill(int bytes) throws IOException {
+		if (limit - pos >= bytes) {
+			return true;
+		}
+		if (pos + bytes > buf.length) {
+			if (bytes > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(bytes, buf.length * 2));
+			}
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		while (limit - pos < bytes && !eof) {
+			int read = in.read(buf, limit, buf.length - limit);
+			if (read < 0) {
+				eof = true;
+			} else {
+				limit += read;
+			}
+		}
+		return limit - pos >= bytes;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
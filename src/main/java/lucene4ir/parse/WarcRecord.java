@@ -208,6 +208,10 @@ public class WarcRecord {
 	    return retContent;
 	  }
 	  
+	  /**
+	   * Reads the next record byte by byte. Prefer WarcReader, which reads through a
+	   * buffer and is safe to use from several threads.
+	   */
 	  public static WarcRecord readNextWarcRecord(DataInputStream in) throws IOException {
 	    // LOG.info("Starting read of WARC record");
 	    StringBuffer recordHeader=new StringBuffer();
@@ -221,32 +225,12 @@ public class WarcRecord {
 	    String thisHeaderString=recordHeader.toString();
 
 
-	    String[] headerLines=thisHeaderString.split(LINE_ENDING);
+	    // split on either line ending, LINE_ENDING is shared with other readers
+	    String[] headerLines=thisHeaderString.split("\r?\n");
 
 	    WarcRecord retRecord=new WarcRecord();
 	    for (int i=0; i < headerLines.length; i++) {
-	      String[] pieces=headerLines[i].split(":", 2);
-	      if (pieces.length!=2) { 
-	        retRecord.addHeaderMetadata(pieces[0], "");
-	        continue; 
-	      }
-	      String thisKey=pieces[0].trim();
-	      String thisValue=pieces[1].trim();
-
-	      // check for known keys
-	      if (thisKey.equals("WARC-Type")) { 
-	        // LOG.info("Setting WARC record type: " + thisValue);
-	        retRecord.setWarcRecordType(thisValue);
-	      } else if (thisKey.equals("WARC-Date")) {
-	        retRecord.setWarcDate(thisValue);
-	      } else if (thisKey.equals("WARC-Record-ID")) {
-	        // LOG.info("Setting WARC record ID: " + thisValue);
-	        retRecord.setWarcUUID(thisValue);
-	      } else if (thisKey.equals("Content-Type")) {
-	        retRecord.setWarcContentType(thisValue);
-	      } else {
-	        retRecord.addHeaderMetadata(thisKey, thisValue);
-	      }
+	      retRecord.addHeaderLine(headerLines[i]);
 	    }
 
 	    // set the content
@@ -254,6 +238,34 @@ public class WarcRecord {
 	    
 	    return retRecord;
 	  }
+
+	  /**
+	   * Sets the header field given by one "key: value" line of the record header.
+	   */
+	  void addHeaderLine(String headerLine) {
+	    String[] pieces=headerLine.split(":", 2);
+	    if (pieces.length!=2) { 
+	      addHeaderMetadata(pieces[0], "");
+	      return; 
+	    }
+	    String thisKey=pieces[0].trim();
+	    String thisValue=pieces[1].trim();
+
+	    // check for known keys
+	    if (thisKey.equals("WARC-Type")) { 
+	      // LOG.info("Setting WARC record type: " + thisValue);
+	      setWarcRecordType(thisValue);
+	    } else if (thisKey.equals("WARC-Date")) {
+	      setWarcDate(thisValue);
+	    } else if (thisKey.equals("WARC-Record-ID")) {
+	      // LOG.info("Setting WARC record ID: " + thisValue);
+	      setWarcUUID(thisValue);
+	    } else if (thisKey.equals("Content-Type")) {
+	      setWarcContentType(thisValue);
+	    } else {
+	      addHeaderMetadata(thisKey, thisValue);
+	    }
+	  }
 	  
 	  public class WarcHeader {
 	    public String contentType="";
@@ -1,6 +1,10 @@
 package lucene4ir.predictor;
 
+import lucene4ir.utils.FieldLengths;
+import lucene4ir.utils.IndexStats;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Query;
 
@@ -49,11 +53,26 @@ public abstract class PreQPPredictor extends QPPredictor {
         return reader.totalTermFreq(new Term(field, term));
     }
 
+    /**
+     * Returns the number of tokens of the field in the collection: the sum of the exact
+     * document lengths recorded at index time, which the postings already total and
+     * the index statistics keep.
+     */
     protected final double getTermCount() throws IOException {
-        int numDocs = reader.numDocs();
-        long termCount = 0;
-        for (int i = 0; i < numDocs; i++) {
-            termCount += reader.document(i).getField(field).stringValue().split(" ").length;
+        IndexStats.FieldStats stats = IndexStats.load(reader).get(field);
+        long termCount = stats == null ? 0 : stats.sumTotalTermFreq;
+        if (termCount >= 0) {
+            return termCount;
+        }
+        // the field is indexed without term frequencies, so add up the lengths
+        termCount = 0;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            NumericDocValues lengths = FieldLengths.getLengths(leaf.reader(), field);
+            if (lengths != null) {
+                for (int i = 0; i < leaf.reader().maxDoc(); i++) {
+                    termCount += lengths.get(i);
+                }
+            }
         }
         return termCount;
     }
@@ -0,0 +1,100 @@
+package lucene4ir.utils;
+
+import lucene4ir.Lucene4IRConstants;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Looks up the anchor text of a page by its docnum, in the anchor index that AnchorTextApp
+ * builds: one document per page with anchor text, holding its docnum (indexed), the text
+ * of the links to it (stored, one line per link) and the number of those links.
+ *
+ * The terms of each segment are looked up with a TermsEnum that is kept for the next
+ * lookup, so each thread needs its own AnchorText; new AnchorText(shared) makes one that
+ * shares the reader of another.
+ */
+public class AnchorText implements Closeable {
+
+    public static final String FIELD_COUNT = "anchorCount";
+
+    private static final Set<String> ANCHOR = Collections.singleton(Lucene4IRConstants.FIELD_ANCHOR);
+
+    private final DirectoryReader reader;
+    private final boolean owner;
+    private final List<LeafReaderContext> leaves;
+    private final TermsEnum[] terms;
+    private PostingsEnum postings;
+
+    public AnchorText(String anchorIndex) throws IOException {
+        reader = DirectoryReader.open(FSDirectory.open(Paths.get(anchorIndex)));
+        owner = true;
+        leaves = reader.leaves();
+        terms = new TermsEnum[leaves.size()];
+    }
+
+    public AnchorText(AnchorText shared){
+        reader = shared.reader;
+        owner = false;
+        leaves = reader.leaves();
+        terms = new TermsEnum[leaves.size()];
+    }
+
+    public int numPages(){
+        return reader.numDocs();
+    }
+
+    /**
+     * Returns the anchor text of the page, or null if no page links to it.
+     */
+    public String get(String docnum) throws IOException {
+        BytesRef term = new BytesRef(docnum);
+        for (int i = 0; i < leaves.size(); i++) {
+            LeafReader leaf = leaves.get(i).reader();
+            if (terms[i] == null) {
+                Terms t = leaf.terms(Lucene4IRConstants.FIELD_DOCNUM);
+                if (t == null) {
+                    continue;
+                }
+                terms[i] = t.iterator();
+            }
+            if (!terms[i].seekExact(term)) {
+                continue;
+            }
+            postings = terms[i].postings(postings, PostingsEnum.NONE);
+            Bits live = leaf.getLiveDocs();
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (live == null || live.get(doc)) {
+                    Document d = leaf.document(doc, ANCHOR);
+                    return d.get(Lucene4IRConstants.FIELD_ANCHOR);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes the reader, if this AnchorText opened it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (owner) {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package lucene4ir.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A CharSequence view of a range of ASCII bytes, e.g. in a memory-mapped file,
+ * with one char per byte. Nothing is copied until toString() is called.
+ *
+ * Only the absolute get methods of the buffer are used, so views of the same buffer
+ * can be read from several threads at once.
+ */
+public class ByteCharSequence implements CharSequence {
+
+    private final ByteBuffer bytes;
+    private final int offset;
+    private final int length;
+
+    public ByteCharSequence(ByteBuffer bytes, int offset, int length){
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length(){
+        return length;
+    }
+
+    public char charAt(int index){
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return (char) (bytes.get(offset + index) & 0xff);
+    }
+
+    public CharSequence subSequence(int start, int end){
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new ByteCharSequence(bytes, offset + start, end - start);
+    }
+
+    /**
+     * Copies the chars from srcBegin (inclusive) to srcEnd (exclusive) into dst, like String.getChars.
+     */
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin){
+        if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+            throw new IndexOutOfBoundsException("begin " + srcBegin + ", end " + srcEnd + ", length " + length);
+        }
+        for (int i = srcBegin; i < srcEnd; i++) {
+            dst[dstBegin++] = (char) (bytes.get(offset + i) & 0xff);
+        }
+    }
+
+    @Override
+    public String toString(){
+        char[] chars = new char[length];
+        getChars(0, length, chars, 0);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,63 @@
+package lucene4ir.utils;
+
+import lucene4ir.Lucene4IRConstants;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Looks up the docnum (e.g. the TREC document id) of Lucene docids, such as the hits of a
+ * search, to write them out in a run.
+ *
+ * The indexers write the docnum as sorted doc values as well as a stored field, so it can
+ * be read without decompressing the stored text of the document. Segments without those
+ * doc values, e.g. of an index built before, fall back to the stored docnum.
+ *
+ * The doc values of each segment are opened the first time they are needed and then reused,
+ * so each thread needs its own lookup.
+ */
+public class DocnumLookup {
+
+    private static final Set<String> DOCNUM = Collections.singleton(Lucene4IRConstants.FIELD_DOCNUM);
+
+    private final List<LeafReaderContext> leaves;
+    private final SortedDocValues[] values;
+    private final boolean[] opened;
+
+    public DocnumLookup(IndexReader reader){
+        leaves = reader.leaves();
+        values = new SortedDocValues[leaves.size()];
+        opened = new boolean[leaves.size()];
+    }
+
+    /**
+     * Returns the docnum of the document, or null if it has none.
+     */
+    public String get(int docid) throws IOException {
+        int i = ReaderUtil.subIndex(docid, leaves);
+        LeafReaderContext leaf = leaves.get(i);
+        int doc = docid - leaf.docBase;
+        if (!opened[i]) {
+            FieldInfo fi = leaf.reader().getFieldInfos().fieldInfo(Lucene4IRConstants.FIELD_DOCNUM);
+            if (fi != null && fi.getDocValuesType() == DocValuesType.SORTED) {
+                values[i] = leaf.reader().getSortedDocValues(Lucene4IRConstants.FIELD_DOCNUM);
+            }
+            opened[i] = true;
+        }
+        if (values[i] != null) {
+            int ord = values[i].getOrd(doc);
+            if (ord >= 0) {
+                return values[i].lookupOrd(ord).utf8ToString();
+            }
+        }
+        return leaf.reader().document(doc, DOCNUM).get(Lucene4IRConstants.FIELD_DOCNUM);
+    }
+}
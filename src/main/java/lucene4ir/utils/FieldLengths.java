@@ -0,0 +1,128 @@
+package lucene4ir.utils;
+
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the exact length (number of tokens, less those stacked on the position of another,
+ * as for the norms) and number of distinct terms of a field of each document, which the
+ * indexers write as numeric doc values named e.g. "content_length" and "content_unique".
+ *
+ * Segments without those doc values, e.g. of an index built before, fall back to the
+ * length encoded in the norms of the field, which is only approximate (one byte per
+ * document), and have no unique term counts.
+ *
+ * The static methods get the values of one segment, e.g. for a similarity or a retriever
+ * that scores one segment at a time. An instance looks up the values by docid across the
+ * segments of a reader; it opens the values of each segment the first time they are needed
+ * and then reuses them, so each thread needs its own.
+ */
+public class FieldLengths {
+
+    public static final String LENGTH_SUFFIX = "_length";
+    public static final String UNIQUE_TERMS_SUFFIX = "_unique";
+
+    public static String lengthField(String field){
+        return field + LENGTH_SUFFIX;
+    }
+
+    public static String uniqueTermsField(String field){
+        return field + UNIQUE_TERMS_SUFFIX;
+    }
+
+    /**
+     * Returns the lengths of the field in the documents of the segment, or null if it has
+     * neither lengths nor norms for the field.
+     */
+    public static NumericDocValues getLengths(LeafReader reader, String field) throws IOException {
+        NumericDocValues lengths = getNumericValues(reader, lengthField(field));
+        if (lengths != null) {
+            return lengths;
+        }
+        final NumericDocValues norms = reader.getNormValues(field);
+        if (norms == null) {
+            return null;
+        }
+        return new NumericDocValues() {
+            @Override
+            public long get(int docID){
+                return decodeNormLength(norms.get(docID));
+            }
+        };
+    }
+
+    /**
+     * Returns the numbers of distinct terms of the field in the documents of the segment,
+     * or null if the segment does not have them.
+     */
+    public static NumericDocValues getUniqueTerms(LeafReader reader, String field) throws IOException {
+        return getNumericValues(reader, uniqueTermsField(field));
+    }
+
+    private static NumericDocValues getNumericValues(LeafReader reader, String name) throws IOException {
+        FieldInfo fi = reader.getFieldInfos().fieldInfo(name);
+        if (fi == null || fi.getDocValuesType() != DocValuesType.NUMERIC) {
+            return null;
+        }
+        return reader.getNumericDocValues(name);
+    }
+
+    /**
+     * Decodes the field length from a norm written by Lucene's default similarity
+     * (BM25Similarity), which encodes 1/sqrt(length) as a single byte.
+     */
+    public static long decodeNormLength(long norm){
+        float f = SmallFloat.byte315ToFloat((byte) norm);
+        return f == 0 ? 0 : Math.round(1 / (f * f));
+    }
+
+    private final String field;
+    private final List<LeafReaderContext> leaves;
+    private final NumericDocValues[] lengths;
+    private final NumericDocValues[] uniqueTerms;
+    private final boolean[] opened;
+
+    public FieldLengths(IndexReader reader, String field){
+        this.field = field;
+        leaves = reader.leaves();
+        lengths = new NumericDocValues[leaves.size()];
+        uniqueTerms = new NumericDocValues[leaves.size()];
+        opened = new boolean[leaves.size()];
+    }
+
+    /**
+     * Returns the length of the field in the document, or 0 if it is not known.
+     */
+    public long length(int docid) throws IOException {
+        int i = open(docid);
+        return lengths[i] == null ? 0 : lengths[i].get(docid - leaves.get(i).docBase);
+    }
+
+    /**
+     * Returns the number of distinct terms of the field in the document, or -1 if it is not known.
+     */
+    public long uniqueTerms(int docid) throws IOException {
+        int i = open(docid);
+        return uniqueTerms[i] == null ? -1 : uniqueTerms[i].get(docid - leaves.get(i).docBase);
+    }
+
+    private int open(int docid) throws IOException {
+        int i = ReaderUtil.subIndex(docid, leaves);
+        if (!opened[i]) {
+            LeafReader leaf = leaves.get(i).reader();
+            lengths[i] = getLengths(leaf, field);
+            uniqueTerms[i] = getUniqueTerms(leaf, field);
+            opened[i] = true;
+        }
+        return i;
+    }
+}
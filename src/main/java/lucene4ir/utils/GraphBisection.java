@@ -0,0 +1,273 @@
+package lucene4ir.utils;
+
+import org.apache.lucene.util.IntroSelector;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Orders the documents of a collection so that documents sharing terms are close together,
+ * by recursive graph bisection of the graph between documents and their terms (Dhulipala et
+ * al., Compressing Graphs and Indexes with Recursive Graph Bisection, KDD 2016). The smaller
+ * the gaps between the docids of a posting list, the fewer bits they take, and the fewer
+ * blocks a query has to decode.
+ *
+ * The documents are split in two halves, and documents are swapped between the halves for
+ * as long as that lowers the estimated cost of the gaps: for each term, d * log2(n / (d + 1))
+ * over both halves, where d is the number of documents of the half with the term and n the
+ * size of the half. Each half is then split in turn, in parallel, down to minPartitionSize
+ * documents, whose documents are then put back in the order of their document numbers.
+ *
+ * The terms of each document (the forward index) are given as term ids in one array, those
+ * of document i from offsets[i] to offsets[i + 1].
+ */
+public class GraphBisection {
+
+    private final int[] offsets;
+    private final int[] terms;
+    private final int numTerms;
+    private final int minPartitionSize;
+    private final int maxIterations;
+
+    // log2(i), for the costs of halves of up to all the documents
+    private final float[] log2;
+    // the documents on the right of the partition being bisected
+    private final boolean[] right;
+    // the numbers of documents with each term on either side of a partition, zeroed when returned
+    private final ConcurrentLinkedQueue<int[]> freqs = new ConcurrentLinkedQueue<int[]>();
+
+    public GraphBisection(int[] offsets, int[] terms, int numTerms, int minPartitionSize, int maxIterations){
+        this.offsets = offsets;
+        this.terms = terms;
+        this.numTerms = numTerms;
+        this.minPartitionSize = Math.max(1, minPartitionSize);
+        this.maxIterations = maxIterations;
+        int numDocs = offsets.length - 1;
+        log2 = new float[numDocs + 2];
+        for (int i = 1; i < log2.length; i++) {
+            log2[i] = (float) (Math.log(i) / Math.log(2));
+        }
+        right = new boolean[numDocs];
+    }
+
+    /**
+     * Reorders docs, a list of document numbers of the forward index, in place, on the given
+     * number of threads.
+     */
+    public void reorder(int[] docs, int threads){
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new Bisect(docs, 0, docs.length));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the average of log2 of the gaps between the positions in docs of the documents
+     * with each term, i.e. about how many bits a posting takes in this order.
+     */
+    public double averageLogGap(int[] docs){
+        int[] last = new int[numTerms];
+        double sum = 0;
+        long postings = 0;
+        for (int i = 0; i < docs.length; i++) {
+            for (int j = offsets[docs[i]]; j < offsets[docs[i] + 1]; j++) {
+                int term = terms[j];
+                sum += Math.log(i + 1 - last[term]);
+                last[term] = i + 1;
+                postings++;
+            }
+        }
+        return postings == 0 ? 0 : sum / Math.log(2) / postings;
+    }
+
+    private int[] takeFreqs(){
+        int[] f = freqs.poll();
+        return f == null ? new int[numTerms] : f;
+    }
+
+    private class Bisect extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] docs;
+        private final int from;
+        private final int to;
+
+        Bisect(int[] docs, int from, int to){
+            this.docs = docs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from < 2 * minPartitionSize) {
+                Arrays.sort(docs, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            int[] leftFreqs = takeFreqs();
+            int[] rightFreqs = takeFreqs();
+            for (int i = from; i < to; i++) {
+                int[] f = i < mid ? leftFreqs : rightFreqs;
+                for (int j = offsets[docs[i]]; j < offsets[docs[i] + 1]; j++) {
+                    f[terms[j]]++;
+                }
+            }
+
+            /*
+                The bias of a document is its gain from moving to the right, or the loss from
+                it leaving the right. Selecting the half with the lowest bias for the left swaps
+                every pair of documents whose gains from swapping add up to more than nothing.
+             */
+            float[] bias = new float[to - from];
+            for (int iteration = 0; iteration < maxIterations; iteration++) {
+                for (int i = from; i < to; i++) {
+                    right[docs[i]] = i >= mid;
+                }
+                invokeAll(new Gains(docs, from, to, mid, bias, leftFreqs, rightFreqs));
+                new Selector(docs, from, bias).select(from, to, mid);
+
+                boolean moved = false;
+                for (int i = from; i < to; i++) {
+                    int doc = docs[i];
+                    if (right[doc] != (i >= mid)) {
+                        moved = true;
+                        int[] source = right[doc] ? rightFreqs : leftFreqs;
+                        int[] target = right[doc] ? leftFreqs : rightFreqs;
+                        for (int j = offsets[doc]; j < offsets[doc + 1]; j++) {
+                            source[terms[j]]--;
+                            target[terms[j]]++;
+                        }
+                    }
+                }
+                if (!moved) {
+                    break;
+                }
+            }
+
+            for (int i = from; i < to; i++) {
+                for (int j = offsets[docs[i]]; j < offsets[docs[i] + 1]; j++) {
+                    leftFreqs[terms[j]] = 0;
+                    rightFreqs[terms[j]] = 0;
+                }
+            }
+            freqs.add(leftFreqs);
+            freqs.add(rightFreqs);
+
+            invokeAll(new Bisect(docs, from, mid), new Bisect(docs, mid, to));
+        }
+    }
+
+    /**
+     * Computes the biases of a range of the documents of a partition, splitting large ranges
+     * between the threads.
+     */
+    private class Gains extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int MIN_DOCS = 4096;
+
+        private final int[] docs;
+        private final int from;
+        private final int to;
+        private final int partitionFrom;
+        private final int partitionTo;
+        private final int mid;
+        private final float[] bias;
+        private final int[] leftFreqs;
+        private final int[] rightFreqs;
+
+        Gains(int[] docs, int from, int to, int mid, float[] bias, int[] leftFreqs, int[] rightFreqs){
+            this(docs, from, to, from, to, mid, bias, leftFreqs, rightFreqs);
+        }
+
+        private Gains(int[] docs, int from, int to, int partitionFrom, int partitionTo, int mid, float[] bias,
+                      int[] leftFreqs, int[] rightFreqs){
+            this.docs = docs;
+            this.from = from;
+            this.to = to;
+            this.partitionFrom = partitionFrom;
+            this.partitionTo = partitionTo;
+            this.mid = mid;
+            this.bias = bias;
+            this.leftFreqs = leftFreqs;
+            this.rightFreqs = rightFreqs;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from > MIN_DOCS) {
+                int half = (from + to) >>> 1;
+                invokeAll(new Gains(docs, from, half, partitionFrom, partitionTo, mid, bias, leftFreqs, rightFreqs),
+                        new Gains(docs, half, to, partitionFrom, partitionTo, mid, bias, leftFreqs, rightFreqs));
+                return;
+            }
+            float leftLog = log2[mid - partitionFrom];
+            float rightLog = log2[partitionTo - mid];
+            for (int i = from; i < to; i++) {
+                int doc = docs[i];
+                float gain = 0;
+                for (int j = offsets[doc]; j < offsets[doc + 1]; j++) {
+                    int l = leftFreqs[terms[j]];
+                    int r = rightFreqs[terms[j]];
+                    // the cost of the term before the move less that after it
+                    gain += i < mid
+                            ? cost(l, leftLog) + cost(r, rightLog) - cost(l - 1, leftLog) - cost(r + 1, rightLog)
+                            : cost(r, rightLog) + cost(l, leftLog) - cost(r - 1, rightLog) - cost(l + 1, leftLog);
+                }
+                bias[i - partitionFrom] = i < mid ? gain : -gain;
+            }
+        }
+
+        private float cost(int freq, float logSize){
+            return freq * (logSize - log2[freq + 1]);
+        }
+    }
+
+    /**
+     * Selects the documents with the lowest bias, and on equal biases those already on the
+     * left, so that documents are only moved for a gain.
+     */
+    private class Selector extends IntroSelector {
+
+        private final int[] docs;
+        private final int offset;
+        private final float[] bias;
+        private float pivot;
+        private boolean pivotRight;
+
+        Selector(int[] docs, int offset, float[] bias){
+            this.docs = docs;
+            this.offset = offset;
+            this.bias = bias;
+        }
+
+        @Override
+        protected void swap(int i, int j){
+            int doc = docs[i];
+            docs[i] = docs[j];
+            docs[j] = doc;
+            float b = bias[i - offset];
+            bias[i - offset] = bias[j - offset];
+            bias[j - offset] = b;
+        }
+
+        @Override
+        protected void setPivot(int i){
+            pivot = bias[i - offset];
+            pivotRight = right[docs[i]];
+        }
+
+        @Override
+        protected int comparePivot(int j){
+            int c = Float.compare(pivot, bias[j - offset]);
+            return c != 0 ? c : Boolean.compare(pivotRight, right[docs[j]]);
+        }
+    }
+}
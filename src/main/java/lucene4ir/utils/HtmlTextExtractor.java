@@ -0,0 +1,233 @@
+package lucene4ir.utils;
+
+import org.jsoup.nodes.Entities;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Extracts the text of an HTML page in a single pass over its characters, without
+ * building a DOM.
+ *
+ * Tags, comments and declarations are dropped, the contents of script and style elements
+ * are skipped, entities are decoded and runs of whitespace are collapsed into one space.
+ * Tags separate words, except for the inline ones such as a, b and span, so that
+ * "&lt;p&gt;one&lt;/p&gt;&lt;p&gt;two&lt;/p&gt;" gives "one two" while "&lt;b&gt;W&lt;/b&gt;ord" gives "Word".
+ * The text of title elements is part of the text, and is also collected on its own.
+ *
+ * An instance reuses its buffers from page to page, so each thread needs its own.
+ */
+public class HtmlTextExtractor {
+
+    private static final Set<String> INLINE_TAGS = new HashSet<String>(Arrays.asList(
+            "a", "abbr", "acronym", "b", "basefont", "bdo", "big", "cite", "code", "dfn", "em",
+            "font", "i", "kbd", "label", "nobr", "q", "s", "samp", "small", "span", "strike",
+            "strong", "sub", "sup", "tt", "u", "var"));
+
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder title = new StringBuilder();
+    private final StringBuilder tagName = new StringBuilder();
+    private boolean inTitle;
+    private boolean space;
+    private boolean titleSpace;
+
+    /**
+     * Extracts the text of html from start (inclusive) to end (exclusive).
+     */
+    public void extract(CharSequence html, int start, int end){
+        text.setLength(0);
+        title.setLength(0);
+        inTitle = false;
+        space = false;
+        titleSpace = false;
+
+        int i = start;
+        while (i < end) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                i = markup(html, i, end);
+            } else if (c == '&') {
+                i = entity(html, i, end);
+            } else {
+                append(c);
+                i++;
+            }
+        }
+    }
+
+    public void extract(CharSequence html){
+        extract(html, 0, html.length());
+    }
+
+    public String getText(){
+        return text.toString();
+    }
+
+    public String getTitle(){
+        return title.toString();
+    }
+
+    /**
+     * Handles the markup starting at the '&lt;' at i, and returns the position after it.
+     */
+    private int markup(CharSequence html, int i, int end){
+        if (startsWith(html, i, end, "<!--")) {
+            int close = indexOf(html, i + 4, end, "-->");
+            return close < 0 ? end : close + 3;
+        }
+        if (i + 1 < end && (html.charAt(i + 1) == '!' || html.charAt(i + 1) == '?')) {
+            return skipTag(html, i + 2, end);
+        }
+
+        boolean endTag = i + 1 < end && html.charAt(i + 1) == '/';
+        int j = endTag ? i + 2 : i + 1;
+        tagName.setLength(0);
+        while (j < end && Character.isLetterOrDigit(html.charAt(j))) {
+            tagName.append(Character.toLowerCase(html.charAt(j)));
+            j++;
+        }
+        if (tagName.length() == 0 || !Character.isLetter(tagName.charAt(0))) {
+            // not a tag, e.g. "a < b"
+            append('<');
+            return i + 1;
+        }
+
+        j = skipTag(html, j, end);
+        String name = tagName.toString();
+        if (!INLINE_TAGS.contains(name)) {
+            space = true;
+            titleSpace = true;
+        }
+        if (name.equals("title")) {
+            inTitle = !endTag;
+        } else if (!endTag && (name.equals("script") || name.equals("style"))) {
+            int close = indexOfIgnoreCase(html, j, end, "</" + name);
+            j = close < 0 ? end : skipTag(html, close + 2, end);
+        }
+        return j;
+    }
+
+    /**
+     * Decodes the entity starting at the '&amp;' at i, and returns the position after it.
+     * Text that is not a known entity is kept as it is.
+     */
+    private int entity(CharSequence html, int i, int end){
+        int j = i + 1;
+        boolean numeric = j < end && html.charAt(j) == '#';
+        if (numeric) {
+            j++;
+        }
+        int nameStart = j;
+        while (j < end && j - nameStart < 32 && Character.isLetterOrDigit(html.charAt(j))) {
+            j++;
+        }
+        if (j == nameStart || j >= end || html.charAt(j) != ';') {
+            append('&');
+            return i + 1;
+        }
+
+        String name = html.subSequence(nameStart, j).toString();
+        int codePoint = -1;
+        if (numeric) {
+            try {
+                if (name.charAt(0) == 'x' || name.charAt(0) == 'X') {
+                    codePoint = Integer.parseInt(name.substring(1), 16);
+                } else {
+                    codePoint = Integer.parseInt(name);
+                }
+            } catch (NumberFormatException e){
+                codePoint = -1;
+            }
+        } else if (Entities.isNamedEntity(name)) {
+            codePoint = Entities.getCharacterByName(name);
+        }
+        if (!Character.isValidCodePoint(codePoint)) {
+            append('&');
+            return i + 1;
+        }
+
+        if (Character.isBmpCodePoint(codePoint)) {
+            append((char) codePoint);
+        } else {
+            append(Character.highSurrogate(codePoint));
+            append(Character.lowSurrogate(codePoint));
+        }
+        return j + 1;
+    }
+
+    private void append(char c){
+        if (c <= ' ' || c == '\u00A0') {
+            space = true;
+            titleSpace = true;
+            return;
+        }
+        if (space && text.length() > 0) {
+            text.append(' ');
+        }
+        space = false;
+        text.append(c);
+
+        if (inTitle) {
+            if (titleSpace && title.length() > 0) {
+                title.append(' ');
+            }
+            titleSpace = false;
+            title.append(c);
+        }
+    }
+
+    /**
+     * Returns the position after the '&gt;' that ends the tag, skipping quoted attribute values.
+     */
+    private static int skipTag(CharSequence html, int i, int end){
+        char quote = 0;
+        while (i < end) {
+            char c = html.charAt(i++);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean startsWith(CharSequence html, int i, int end, String s){
+        if (i + s.length() > end) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (html.charAt(i + k) != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence html, int i, int end, String s){
+        for (; i + s.length() <= end; i++) {
+            if (startsWith(html, i, end, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfIgnoreCase(CharSequence html, int i, int end, String s){
+        for (; i + s.length() <= end; i++) {
+            int k = 0;
+            while (k < s.length() && Character.toLowerCase(html.charAt(i + k)) == s.charAt(k)) {
+                k++;
+            }
+            if (k == s.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
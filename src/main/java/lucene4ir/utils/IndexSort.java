@@ -0,0 +1,60 @@
+package lucene4ir.utils;
+
+import lucene4ir.Lucene4IRConstants;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the order the documents of an index are kept in, as given in the index params
+ * (indexSort) or the link graph params: a comma separated list of doc values fields, each
+ * optionally followed by asc (the default) or desc, e.g. "pagerank desc, docnum". The fields
+ * can be docnum, the pagerank and indegree priors, the bporder written by ReorderApp, and
+ * the exact lengths and numbers of distinct terms of the analysed fields, e.g. all_length
+ * (see FieldLengths).
+ *
+ * Sorting by docnum puts documents with similar docnums, which in TREC collections are often
+ * similar documents, next to each other, so their stored fields and doc values compress
+ * better, and the docids of a segment are in the order of their docnums. Sorting by a prior,
+ * descending, puts the documents most likely to be relevant first.
+ */
+public class IndexSort {
+
+    public static Sort parse(String spec){
+        List<SortField> fields = new ArrayList<SortField>();
+        for (String key : spec.split(",")) {
+            String[] parts = key.trim().split("\\s+");
+            if (parts.length == 0 || parts[0].isEmpty() || parts.length > 2) {
+                throw new IllegalArgumentException("Cannot sort the index by '" + key.trim() + "' in: " + spec);
+            }
+            boolean reverse = false;
+            if (parts.length == 2) {
+                if (parts[1].equalsIgnoreCase("desc")) {
+                    reverse = true;
+                } else if (!parts[1].equalsIgnoreCase("asc")) {
+                    throw new IllegalArgumentException("Unknown sort order: " + parts[1] + ", should be asc or desc");
+                }
+            }
+            fields.add(sortField(parts[0], reverse));
+        }
+        return new Sort(fields.toArray(new SortField[fields.size()]));
+    }
+
+    private static SortField sortField(String field, boolean reverse){
+        if (field.equals(Lucene4IRConstants.FIELD_DOCNUM)) {
+            return new SortField(field, SortField.Type.STRING, reverse);
+        }
+        if (field.equals(Lucene4IRConstants.FIELD_PAGERANK)) {
+            return new SortField(field, SortField.Type.FLOAT, reverse);
+        }
+        if (field.equals(Lucene4IRConstants.FIELD_INDEGREE) || field.equals(Lucene4IRConstants.FIELD_BP_ORDER)
+                || field.endsWith(FieldLengths.LENGTH_SUFFIX) || field.endsWith(FieldLengths.UNIQUE_TERMS_SUFFIX)) {
+            return new SortField(field, SortField.Type.LONG, reverse);
+        }
+        throw new IllegalArgumentException("Cannot sort the index by " + field + ", should be "
+                + Lucene4IRConstants.FIELD_DOCNUM + ", " + Lucene4IRConstants.FIELD_PAGERANK + ", "
+                + Lucene4IRConstants.FIELD_INDEGREE + ", " + Lucene4IRConstants.FIELD_BP_ORDER + " or a field length, e.g. all" + FieldLengths.LENGTH_SUFFIX);
+    }
+}
@@ -0,0 +1,293 @@
+package lucene4ir.utils;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Collection statistics of each indexed field: the number of documents with the field,
+ * the total number of tokens (sumTotalTermFreq) and of postings (sumDocFreq), the average
+ * and maximum document length, and the size of the vocabulary.
+ *
+ * IndexerApp computes them when the index is finished and writes them to a small file in
+ * the index directory, so that the retrieval and QPP apps can load them instead of working
+ * them out again, which for the vocabulary means going through every term of the field.
+ * The file records the commit it was computed from: for any other commit of the index, e.g.
+ * after more documents are appended, or if there is no file, load takes the statistics
+ * the terms dictionary keeps from the reader instead, and only works out the maximum length
+ * and the vocabulary size of a field if they are asked for.
+ */
+public class IndexStats {
+
+    public static final String FILE_NAME = "lucene4ir_stats";
+
+    private static final String CODEC = "Lucene4IRIndexStats";
+    private static final int VERSION = 0;
+
+    // stats already loaded, so that each component working on a reader can ask for them
+    private static final Map<IndexReader, IndexStats> LOADED = Collections.synchronizedMap(new WeakHashMap<IndexReader, IndexStats>());
+
+    public static class FieldStats {
+        public final String field;
+        public final long docCount;
+        public final long sumTotalTermFreq; /** -1 if the field is indexed without term frequencies **/
+        public final long sumDocFreq;
+
+        // -1 until worked out from the reader, see maxLength() and vocabularySize()
+        private long maxLength;
+        private long vocabularySize;
+        private final IndexReader reader;
+        private final Terms terms;
+
+        public FieldStats(String field, long docCount, long sumTotalTermFreq, long sumDocFreq, long maxLength, long vocabularySize){
+            this.field = field;
+            this.docCount = docCount;
+            this.sumTotalTermFreq = sumTotalTermFreq;
+            this.sumDocFreq = sumDocFreq;
+            this.maxLength = maxLength;
+            this.vocabularySize = vocabularySize;
+            reader = null;
+            terms = null;
+        }
+
+        private FieldStats(String field, IndexReader reader, Terms terms) throws IOException {
+            this.field = field;
+            docCount = terms.getDocCount();
+            sumTotalTermFreq = terms.getSumTotalTermFreq();
+            sumDocFreq = terms.getSumDocFreq();
+            maxLength = -1;
+            vocabularySize = -1;
+            this.reader = reader;
+            this.terms = terms;
+        }
+
+        public double avgLength(){
+            return docCount > 0 && sumTotalTermFreq >= 0 ? (double) sumTotalTermFreq / docCount : 0;
+        }
+
+        /**
+         * Returns the length of the longest document, which the first time for statistics
+         * not read from the file means going through the length of every document.
+         */
+        public synchronized long maxLength() throws IOException {
+            if (maxLength < 0) {
+                maxLength = IndexStats.maxLength(reader, field);
+            }
+            return maxLength;
+        }
+
+        /**
+         * Returns the number of distinct terms, which the first time for statistics not read
+         * from the file may mean going through every term of the field.
+         */
+        public synchronized long vocabularySize() throws IOException {
+            if (vocabularySize < 0) {
+                vocabularySize = IndexStats.vocabularySize(reader, terms);
+            }
+            return vocabularySize;
+        }
+
+        /**
+         * Lists the statistics, leaving out those not worked out yet.
+         */
+        @Override
+        public synchronized String toString(){
+            return field + ": docCount " + docCount + ", sumTotalTermFreq " + sumTotalTermFreq
+                    + ", sumDocFreq " + sumDocFreq + ", avgLength " + avgLength()
+                    + (maxLength < 0 ? "" : ", maxLength " + maxLength)
+                    + (vocabularySize < 0 ? "" : ", vocabularySize " + vocabularySize);
+        }
+    }
+
+    private final long generation;
+    private final int numDocs;
+    private final Map<String, FieldStats> fields;
+
+    private IndexStats(long generation, int numDocs, Map<String, FieldStats> fields){
+        this.generation = generation;
+        this.numDocs = numDocs;
+        this.fields = fields;
+    }
+
+    /**
+     * Returns the number of (live) documents in the index.
+     */
+    public int numDocs(){
+        return numDocs;
+    }
+
+    /**
+     * Returns the statistics of the field, all 0 if it is not indexed, as Lucene's own
+     * collection statistics are.
+     */
+    public FieldStats get(String field){
+        FieldStats stats = fields.get(field);
+        return stats == null ? new FieldStats(field, 0, 0, 0, 0, 0) : stats;
+    }
+
+    public Iterable<FieldStats> fields(){
+        return fields.values();
+    }
+
+    /**
+     * Returns the statistics of the index read by reader: those written with the commit
+     * it reads, if they were, or else those the reader keeps (see compute).
+     */
+    public static IndexStats load(IndexReader reader) throws IOException {
+        IndexStats stats = LOADED.get(reader);
+        if (stats == null) {
+            if (reader instanceof DirectoryReader) {
+                DirectoryReader dr = (DirectoryReader) reader;
+                stats = read(dr.directory());
+                if (stats != null && stats.generation != dr.getIndexCommit().getGeneration()) {
+                    stats = null;
+                }
+            }
+            if (stats == null) {
+                stats = compute(reader);
+                // the statistics hold on to the reader, which would keep it in LOADED
+                reader.addReaderClosedListener(LOADED::remove);
+            }
+            LOADED.put(reader, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Takes the statistics of every indexed field from the reader. The maximum length and
+     * the vocabulary size, which have to be worked out from every document or term, are
+     * only worked out when they are first asked for.
+     */
+    public static IndexStats compute(IndexReader reader) throws IOException {
+        long generation = reader instanceof DirectoryReader ? ((DirectoryReader) reader).getIndexCommit().getGeneration() : -1;
+        Map<String, FieldStats> fields = new TreeMap<String, FieldStats>();
+        for (String field : MultiFields.getIndexedFields(reader)) {
+            Terms terms = MultiFields.getTerms(reader, field);
+            if (terms == null) {
+                continue;
+            }
+            fields.put(field, new FieldStats(field, reader, terms));
+        }
+        return new IndexStats(generation, reader.numDocs(), fields);
+    }
+
+    private static long maxLength(IndexReader reader, String field) throws IOException {
+        long max = 0;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            LeafReader lr = leaf.reader();
+            NumericDocValues lengths = FieldLengths.getLengths(lr, field);
+            if (lengths == null) {
+                continue;
+            }
+            Bits live = lr.getLiveDocs();
+            for (int doc = 0; doc < lr.maxDoc(); doc++) {
+                if (live == null || live.get(doc)) {
+                    max = Math.max(max, lengths.get(doc));
+                }
+            }
+        }
+        return max;
+    }
+
+    private static long vocabularySize(IndexReader reader, Terms terms) throws IOException {
+        // a single segment knows how many terms it has; across segments they have to be merged
+        long size = reader.leaves().size() == 1 ? terms.size() : -1;
+        if (size < 0) {
+            size = 0;
+            TermsEnum te = terms.iterator();
+            while (te.next() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the statistics to the index directory, replacing any written before.
+     */
+    public void write(Directory dir) throws IOException {
+        if (exists(dir)) {
+            dir.deleteFile(FILE_NAME);
+        }
+        try (IndexOutput out = dir.createOutput(FILE_NAME, IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeZLong(generation);
+            out.writeVInt(numDocs);
+            out.writeVInt(fields.size());
+            for (FieldStats fs : fields.values()) {
+                out.writeString(fs.field);
+                out.writeVLong(fs.docCount);
+                out.writeZLong(fs.sumTotalTermFreq);
+                out.writeZLong(fs.sumDocFreq);
+                out.writeVLong(fs.maxLength());
+                out.writeVLong(fs.vocabularySize());
+            }
+            CodecUtil.writeFooter(out);
+        }
+        dir.sync(Collections.singleton(FILE_NAME));
+    }
+
+    /**
+     * Records that the statistics written for one commit also hold for a later commit, e.g.
+     * one that only updated doc values. Nothing is written unless the statistics in the
+     * directory are those of the earlier commit.
+     */
+    public static void updateGeneration(Directory dir, long generation, long newGeneration) throws IOException {
+        IndexStats stats = read(dir);
+        if (stats != null && stats.generation == generation) {
+            new IndexStats(newGeneration, stats.numDocs, stats.fields).write(dir);
+        }
+    }
+
+    /**
+     * Reads the statistics written to the index directory, or returns null if there are none.
+     */
+    public static IndexStats read(Directory dir) throws IOException {
+        if (!exists(dir)) {
+            return null;
+        }
+        try (ChecksumIndexInput in = dir.openChecksumInput(FILE_NAME, IOContext.READONCE)) {
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+            long generation = in.readZLong();
+            int numDocs = in.readVInt();
+            int n = in.readVInt();
+            Map<String, FieldStats> fields = new TreeMap<String, FieldStats>();
+            for (int i = 0; i < n; i++) {
+                String field = in.readString();
+                fields.put(field, new FieldStats(field, in.readVLong(), in.readZLong(), in.readZLong(),
+                        in.readVLong(), in.readVLong()));
+            }
+            CodecUtil.checkFooter(in);
+            return new IndexStats(generation, numDocs, fields);
+        } catch (NoSuchFileException e){
+            return null;
+        }
+    }
+
+    private static boolean exists(Directory dir) throws IOException {
+        for (String file : dir.listAll()) {
+            if (file.equals(FILE_NAME)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -2,8 +2,6 @@ package lucene4ir.utils;
 
 import lucene4ir.Lucene4IRConstants;
 import org.apache.lucene.index.*;
-import org.apache.lucene.search.CollectionStatistics;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
@@ -18,8 +16,6 @@ import java.util.Map;
 public class LanguageModel {
 
     protected IndexReader reader;
-    private IndexSearcher searcher;
-    private CollectionStatistics collectionStats;
     public String field = Lucene4IRConstants.FIELD_ALL;
     private int[] doc_ids;
     private double doc_len;
@@ -28,14 +24,12 @@ public class LanguageModel {
 
     public LanguageModel(IndexReader ir, int doc_id) {
         reader = ir;
-        searcher = new IndexSearcher(reader);
         doc_ids = new int[1];
         doc_ids[0] = doc_id;
         doc_len = 0.0;
         updateTermCountMap(doc_id, 1.0);
         try {
-            collectionStats = searcher.collectionStatistics(field);
-            token_count = collectionStats.sumTotalTermFreq();
+            token_count = IndexStats.load(reader).get(field).sumTotalTermFreq;
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
@@ -44,7 +38,6 @@ public class LanguageModel {
 
     public LanguageModel(IndexReader ir, int[] doc_ids) {
         reader = ir;
-        searcher = new IndexSearcher(reader);
         this.doc_ids = doc_ids;
         doc_len = 0.0;
         for (int doc_id : doc_ids) {
@@ -52,8 +45,7 @@ public class LanguageModel {
         }
 
         try {
-            collectionStats = searcher.collectionStatistics(field);
-            token_count = collectionStats.sumTotalTermFreq();
+            token_count = IndexStats.load(reader).get(field).sumTotalTermFreq;
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
@@ -64,7 +56,6 @@ public class LanguageModel {
         assert doc_ids.length == weights.length;
 
         reader = ir;
-        searcher = new IndexSearcher(reader);
         this.doc_ids = doc_ids;
         int size = doc_ids.length;
         doc_len = 0.0;
@@ -74,8 +65,7 @@ public class LanguageModel {
 
 
         try {
-            collectionStats = searcher.collectionStatistics(field);
-            token_count = collectionStats.sumTotalTermFreq();
+            token_count = IndexStats.load(reader).get(field).sumTotalTermFreq;
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
@@ -157,14 +147,9 @@ public class LanguageModel {
     }
 
     public double KLDivergence(double lambda) {
-        // Grab the vocabulary.
-        TermsSet terms = TermsSet.getInstance(reader);
-
+        // Only the terms of the model add to the sum, so there is no need to go through the vocabulary.
         double klDiv = 0.0;
-        for (String term : terms) {
-            if (!termCounts.containsKey(term)) {
-                continue;
-            }
+        for (String term : termCounts.keySet()) {
             double px = getJMTermProb(term, lambda);
             double qx = getCollectionTermProb(term);
 
@@ -0,0 +1,403 @@
+package lucene4ir.utils;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The link graph of a web collection, for computing static priors of its pages such as
+ * PageRank and in-degree (see LinkGraphApp).
+ *
+ * Pages and links are identified by 64 bit hashes (see key and urlKey), so that the graph
+ * of tens of millions of pages does not hold their urls. Each page is a node, numbered in
+ * the order it was added; a link counts if its url is that of a page in the collection,
+ * other than the page itself.
+ *
+ * The graph is held in compressed sparse row form, in int arrays: the in-links of node v
+ * are the nodes inLinks[inOffsets[v]] to inLinks[inOffsets[v + 1] - 1], and outDegree[v] is
+ * the number of pages v links to. So a graph takes 4 bytes per link and about 50 per page,
+ * and building it no more, as the links are kept on disk until all the pages are known
+ * (see Builder). PageRank pulls the rank of each node from its in-links, which lets the
+ * threads work on separate ranges of nodes without any locking.
+ */
+public class LinkGraph {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int[] inOffsets;
+    private final int[] inLinks;
+    private final int[] outDegree;
+    private final KeyTable pages;
+
+    private LinkGraph(int[] inOffsets, int[] inLinks, int[] outDegree, KeyTable pages){
+        this.inOffsets = inOffsets;
+        this.inLinks = inLinks;
+        this.outDegree = outDegree;
+        this.pages = pages;
+    }
+
+    public int numNodes(){
+        return outDegree.length;
+    }
+
+    public long numLinks(){
+        return inLinks.length;
+    }
+
+    /**
+     * Returns the node of the page with the key, or -1 if there is none.
+     */
+    public int node(long pageKey){
+        return pages.get(pageKey);
+    }
+
+    public int inDegree(int node){
+        return inOffsets[node + 1] - inOffsets[node];
+    }
+
+    public int outDegree(int node){
+        return outDegree[node];
+    }
+
+    /**
+     * Returns a 64 bit hash of the string, e.g. of a docnum.
+     */
+    public static long key(String s){
+        long h = FNV_OFFSET;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Returns the key of a url, ignoring its query and fragment, a trailing slash and the
+     * case of its scheme and host, so that links written differently to the same page match.
+     */
+    public static long urlKey(String url){
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        if (end > 0 && url.charAt(end - 1) == '/') {
+            end--;
+        }
+        int scheme = url.indexOf("://");
+        int host = scheme < 0 ? 0 : url.indexOf('/', scheme + 3);
+        if (host < 0 || host > end) {
+            host = end;
+        }
+        long h = FNV_OFFSET;
+        for (int i = 0; i < end; i++) {
+            char c = url.charAt(i);
+            h = (h ^ (i < host ? Character.toLowerCase(c) : c)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h){
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Computes the PageRank of every node, by power iteration until the ranks change by less
+     * than tolerance in total (L1) or after maxIterations. The rank of pages without links
+     * is spread over all the pages. The ranks are scaled by the number of nodes, so that
+     * they average 1.
+     */
+    public double[] pageRank(final double damping, int maxIterations, double tolerance, int threads){
+        final int n = numNodes();
+        final double[] rank = new double[n];
+        final double[] share = new double[n];
+        Arrays.fill(rank, 1.0 / n);
+        if (n == 0) {
+            return rank;
+        }
+
+        // ranges of nodes with about the same number of in-links to pull
+        int parts = Math.max(1, Math.min(n, 4 * threads));
+        final int[] bounds = new int[parts + 1];
+        for (int i = 1; i < parts; i++) {
+            long target = (long) inLinks.length * i / parts;
+            int node = Arrays.binarySearch(inOffsets, (int) target);
+            bounds[i] = Math.max(bounds[i - 1], Math.min(n, node < 0 ? -node - 1 : node));
+        }
+        bounds[parts] = n;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int iteration = 1; iteration <= maxIterations; iteration++) {
+                // what each node passes on to each page it links to
+                List<Callable<Double>> shares = new ArrayList<Callable<Double>>();
+                for (int i = 0; i < parts; i++) {
+                    final int from = (int) ((long) n * i / parts);
+                    final int to = (int) ((long) n * (i + 1) / parts);
+                    shares.add(new Callable<Double>() {
+                        public Double call() {
+                            double dangling = 0;
+                            for (int u = from; u < to; u++) {
+                                if (outDegree[u] == 0) {
+                                    share[u] = 0;
+                                    dangling += rank[u];
+                                } else {
+                                    share[u] = rank[u] / outDegree[u];
+                                }
+                            }
+                            return dangling;
+                        }
+                    });
+                }
+                double dangling = sum(pool.invokeAll(shares));
+
+                final double base = (1 - damping) / n + damping * dangling / n;
+                List<Callable<Double>> pulls = new ArrayList<Callable<Double>>();
+                for (int i = 0; i < parts; i++) {
+                    final int from = bounds[i];
+                    final int to = bounds[i + 1];
+                    pulls.add(new Callable<Double>() {
+                        public Double call() {
+                            double change = 0;
+                            for (int v = from; v < to; v++) {
+                                double in = 0;
+                                for (int j = inOffsets[v]; j < inOffsets[v + 1]; j++) {
+                                    in += share[inLinks[j]];
+                                }
+                                double r = base + damping * in;
+                                change += Math.abs(r - rank[v]);
+                                rank[v] = r;
+                            }
+                            return change;
+                        }
+                    });
+                }
+                double change = sum(pool.invokeAll(pulls));
+                System.out.println("PageRank iteration " + iteration + ": change " + change);
+                if (change < tolerance) {
+                    break;
+                }
+            }
+        } catch (InterruptedException | ExecutionException e){
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int v = 0; v < n; v++) {
+            rank[v] *= n;
+        }
+        return rank;
+    }
+
+    private static double sum(List<Future<Double>> parts) throws InterruptedException, ExecutionException {
+        double sum = 0;
+        for (Future<Double> part : parts) {
+            sum += part.get();
+        }
+        return sum;
+    }
+
+    /**
+     * Collects the pages of a collection with the urls they link to, one page at a time,
+     * and then builds their graph, once. Links can be to pages added later, so which links
+     * are to pages of the collection is only known once they are all added; until then the
+     * links of each page, less those repeated, are written to a temporary file in tempDir,
+     * 8 bytes a link, and the heap only holds the keys of the pages.
+     */
+    public static class Builder {
+        private final LongList pageKeys = new LongList();
+        private final LongList urlKeys = new LongList();
+        private final Directory tempDir;
+        private final IndexOutput links;
+
+        public Builder(Directory tempDir) throws IOException {
+            this.tempDir = tempDir;
+            links = tempDir.createTempOutput("graph", "links", IOContext.DEFAULT);
+        }
+
+        /**
+         * Adds a page, with the keys of the urls it links to, and returns its node. The keys
+         * are sorted in place.
+         */
+        public int addPage(long pageKey, long urlKey, long[] linkKeys, int numLinks) throws IOException {
+            if (pageKeys.size() == Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many pages for a LinkGraph: " + pageKeys.size());
+            }
+            // links to the same url count once
+            Arrays.sort(linkKeys, 0, numLinks);
+            int distinct = 0;
+            for (int i = 0; i < numLinks; i++) {
+                if (i == 0 || linkKeys[i] != linkKeys[i - 1]) {
+                    linkKeys[distinct++] = linkKeys[i];
+                }
+            }
+            links.writeVInt(distinct);
+            for (int i = 0; i < distinct; i++) {
+                links.writeLong(linkKeys[i]);
+            }
+            pageKeys.add(pageKey);
+            urlKeys.add(urlKey);
+            return (int) pageKeys.size() - 1;
+        }
+
+        public int numPages(){
+            return (int) pageKeys.size();
+        }
+
+        /**
+         * Builds the graph of the pages added, and deletes the temporary file.
+         */
+        public LinkGraph build() throws IOException {
+            int n = numPages();
+            KeyTable pages = new KeyTable(n);
+            KeyTable urls = new KeyTable(n);
+            for (int v = 0; v < n; v++) {
+                pages.putIfAbsent(pageKeys.get(v), v);
+                // pages with the same url, e.g. but for the query, are linked to as the first
+                urls.putIfAbsent(urlKeys.get(v), v);
+            }
+            pageKeys.clear();
+            urlKeys.clear();
+            CodecUtil.writeFooter(links);
+            links.close();
+
+            /*
+                The links are read twice: first for the degree of each page, so that the second
+                can put the in-links of each page straight in their place.
+             */
+            int[] outDegree = new int[n];
+            int[] inDegree = new int[n];
+            long numLinks = 0;
+            try (ChecksumIndexInput in = tempDir.openChecksumInput(links.getName(), IOContext.READONCE)) {
+                for (int u = 0; u < n; u++) {
+                    for (int i = in.readVInt(); i > 0; i--) {
+                        int v = urls.get(in.readLong());
+                        if (v >= 0 && v != u) {
+                            outDegree[u]++;
+                            inDegree[v]++;
+                        }
+                    }
+                    numLinks += outDegree[u];
+                }
+                CodecUtil.checkFooter(in);
+            }
+            if (numLinks > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many links for a LinkGraph: " + numLinks);
+            }
+
+            // turned around, by the page they are to
+            int[] inOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                inOffsets[v + 1] = inOffsets[v] + inDegree[v];
+            }
+            int[] inLinks = new int[(int) numLinks];
+            int[] next = inDegree;
+            System.arraycopy(inOffsets, 0, next, 0, n);
+            try (IndexInput in = tempDir.openInput(links.getName(), IOContext.READONCE)) {
+                for (int u = 0; u < n; u++) {
+                    for (int i = in.readVInt(); i > 0; i--) {
+                        int v = urls.get(in.readLong());
+                        if (v >= 0 && v != u) {
+                            inLinks[next[v]++] = u;
+                        }
+                    }
+                }
+            }
+            tempDir.deleteFile(links.getName());
+            return new LinkGraph(inOffsets, inLinks, outDegree, pages);
+        }
+    }
+
+    /**
+     * An open addressing hash table from 64 bit keys to nodes.
+     */
+    private static class KeyTable {
+        private final long[] keys;
+        private final int[] values;
+        private final int mask;
+
+        KeyTable(int size){
+            int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) * 2;
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(values, -1);
+            mask = capacity - 1;
+        }
+
+        void putIfAbsent(long key, int value){
+            int slot = (int) key & mask;
+            while (values[slot] >= 0) {
+                if (keys[slot] == key) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        int get(long key){
+            int slot = (int) key & mask;
+            while (values[slot] >= 0) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A list of longs in chunks, so that growing it does not copy what it holds.
+     */
+    private static class LongList {
+        private static final int CHUNK_BITS = 20;
+        private final List<long[]> chunks = new ArrayList<long[]>();
+        private long size = 0;
+
+        void add(long value){
+            int chunk = (int) (size >>> CHUNK_BITS);
+            if (chunk == chunks.size()) {
+                chunks.add(new long[1 << CHUNK_BITS]);
+            }
+            chunks.get(chunk)[(int) size & ((1 << CHUNK_BITS) - 1)] = value;
+            size++;
+        }
+
+        long get(long i){
+            return chunks.get((int) (i >>> CHUNK_BITS))[(int) i & ((1 << CHUNK_BITS) - 1)];
+        }
+
+        long size(){
+            return size;
+        }
+
+        void clear(){
+            chunks.clear();
+            size = 0;
+        }
+    }
+}
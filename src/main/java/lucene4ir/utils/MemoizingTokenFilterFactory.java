@@ -0,0 +1,175 @@
+package lucene4ir.utils;
+
+import org.apache.lucene.analysis.CharArrayMap;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+import org.apache.lucene.util.AttributeSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps the factory of an expensive token filter, such as a stemmer, so that the filters it
+ * creates remember what each term became, and only run the wrapped filter on terms they have
+ * not seen before. As the frequencies of the terms of a text are Zipfian, most tokens are
+ * then looked up rather than stemmed again.
+ *
+ * TokenAnalyzerMaker puts it around a filter given a cacheSize in the token filter file. The
+ * parameters are those of the wrapped filter, plus "filter", its name, and "cacheSize", the
+ * most terms each cache holds. A full cache keeps the terms it has: the frequent terms are
+ * seen early, and the rest are rare enough that clearing it for them would cost more hits.
+ *
+ * An analyzer keeps one filter per thread (and per field), so each cache is only used by
+ * one thread and needs no locking. The numbers of tokens looked up and found are added to
+ * the factory at the end of each token stream, for hitRate.
+ *
+ * Only filters that turn each token into exactly one token, by changing its term text alone
+ * and the same way wherever it occurs, can be wrapped: stemmers, lowercasing or folding, but
+ * not stop word, synonym or shingle filters. Tokens marked as keywords are passed to the
+ * wrapped filter every time, as stemmers leave them alone.
+ */
+public class MemoizingTokenFilterFactory extends TokenFilterFactory implements ResourceLoaderAware {
+
+    private final String name;
+    private final TokenFilterFactory factory;
+    private final int cacheSize;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    public MemoizingTokenFilterFactory(Map<String, String> args){
+        // the wrapped factory takes the same luceneMatchVersion
+        super(new HashMap<String, String>(args));
+        name = require(args, "filter");
+        cacheSize = getInt(args, "cacheSize", 65536);
+        args.remove(LUCENE_MATCH_VERSION_PARAM);
+        if (luceneMatchVersion != null) {
+            args.put(LUCENE_MATCH_VERSION_PARAM, luceneMatchVersion.toString());
+        }
+        factory = TokenFilterFactory.forName(name, args);
+        args.clear();
+    }
+
+    @Override
+    public void inform(ResourceLoader loader) throws IOException {
+        if (factory instanceof ResourceLoaderAware) {
+            ((ResourceLoaderAware) factory).inform(loader);
+        }
+    }
+
+    @Override
+    public TokenStream create(TokenStream input){
+        return new MemoizingTokenFilter(input);
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Returns the share of the tokens so far whose term was in the cache.
+     */
+    public double hitRate(){
+        long n = lookups.sum();
+        return n == 0 ? 0 : (double) hits.sum() / n;
+    }
+
+    @Override
+    public String toString(){
+        return name + " cache: " + hits.sum() + " of " + lookups.sum() + " tokens found ("
+                + String.format("%.1f", 100 * hitRate()) + "%), up to " + cacheSize + " terms per thread";
+    }
+
+    /**
+     * Passes one token at a time to the wrapped filter; it shares the attributes of the
+     * MemoizingTokenFilter, so the token is the one that filter has just read.
+     */
+    private static final class OneToken extends TokenStream {
+        boolean pending = false;
+
+        OneToken(AttributeSource attributes){
+            super(attributes);
+        }
+
+        @Override
+        public boolean incrementToken(){
+            boolean next = pending;
+            pending = false;
+            return next;
+        }
+    }
+
+    private final class MemoizingTokenFilter extends TokenFilter {
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+        private final OneToken token = new OneToken(this);
+        private final TokenStream filter = factory.create(token);
+        private final CharArrayMap<char[]> cache = new CharArrayMap<char[]>(Math.min(cacheSize, 1024), false);
+        private long lookups = 0;
+        private long hits = 0;
+
+        MemoizingTokenFilter(TokenStream input){
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken()) {
+                return false;
+            }
+            if (keywordAtt.isKeyword()) {
+                filterToken();
+                return true;
+            }
+            lookups++;
+            char[] term = cache.get(termAtt.buffer(), 0, termAtt.length());
+            if (term != null) {
+                hits++;
+                termAtt.copyBuffer(term, 0, term.length);
+                return true;
+            }
+            char[] key = Arrays.copyOf(termAtt.buffer(), termAtt.length());
+            filterToken();
+            if (cache.size() < cacheSize) {
+                cache.put(key, Arrays.copyOf(termAtt.buffer(), termAtt.length()));
+            }
+            return true;
+        }
+
+        private void filterToken() throws IOException {
+            token.pending = true;
+            if (!filter.incrementToken() || token.pending) {
+                throw new IllegalStateException(name + " does not turn each token into one token, so it cannot be cached");
+            }
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            filter.reset();
+        }
+
+        @Override
+        public void end() throws IOException {
+            // not the wrapped filter's end, which would clear the final offset set by input
+            super.end();
+            MemoizingTokenFilterFactory.this.lookups.add(lookups);
+            MemoizingTokenFilterFactory.this.hits.add(hits);
+            lookups = 0;
+            hits = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            filter.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package lucene4ir.utils;
+
+import lucene4ir.Lucene4IRConstants;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.queries.CustomScoreProvider;
+import org.apache.lucene.queries.CustomScoreQuery;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Adds a static prior of each document to the score the query gives it: weight * log(prior),
+ * which for a language model is a document prior, e.g. weight 1 for P(d) proportional to
+ * the prior. The priors are those LinkGraphApp writes as doc values: pagerank, which averages
+ * 1, or log(1 + indegree). Documents without a value get no change to their score.
+ *
+ * The prior only reorders the documents that match the query, and is read from the doc
+ * values of the matching documents as they are scored.
+ */
+public class PriorQuery extends CustomScoreQuery {
+
+    private final String prior;
+    private final float weight;
+
+    public PriorQuery(Query query, String prior, float weight){
+        super(query);
+        if (!prior.equals(Lucene4IRConstants.FIELD_PAGERANK) && !prior.equals(Lucene4IRConstants.FIELD_INDEGREE)) {
+            throw new IllegalArgumentException("Unknown prior: " + prior + ", should be "
+                    + Lucene4IRConstants.FIELD_PAGERANK + " or " + Lucene4IRConstants.FIELD_INDEGREE);
+        }
+        this.prior = prior;
+        this.weight = weight;
+    }
+
+    @Override
+    protected CustomScoreProvider getCustomScoreProvider(LeafReaderContext context) throws IOException {
+        final NumericDocValues values = DocValues.getNumeric(context.reader(), prior);
+        final boolean pageRank = prior.equals(Lucene4IRConstants.FIELD_PAGERANK);
+        return new CustomScoreProvider(context) {
+            @Override
+            public float customScore(int doc, float subQueryScore, float valSrcScore){
+                long value = values.get(doc);
+                if (pageRank) {
+                    float rank = Float.intBitsToFloat((int) value);
+                    return rank > 0 ? subQueryScore + weight * (float) Math.log(rank) : subQueryScore;
+                }
+                return subQueryScore + weight * (float) Math.log1p(value);
+            }
+        };
+    }
+
+    @Override
+    public String name(){
+        return "prior";
+    }
+
+    @Override
+    public String toString(String field){
+        return name() + "(" + getSubQuery().toString(field) + ", " + prior + "^" + weight + ")";
+    }
+
+    @Override
+    public boolean equals(Object o){
+        return super.equals(o) && prior.equals(((PriorQuery) o).prior) && weight == ((PriorQuery) o).weight;
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * super.hashCode() + Objects.hash(prior, weight);
+    }
+}
@@ -0,0 +1,154 @@
+package lucene4ir.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A Reader that reads its source on a thread of its own, a few blocks ahead of the caller.
+ *
+ * The source is typically an InputStreamReader over a decompressing stream, so that both
+ * the decompression and the charset decoding of a file are done while the caller is busy
+ * parsing the text read before. The text is passed over in a small ring of large blocks:
+ * the caller reads from one while the reading thread fills the others.
+ *
+ * Errors on the reading thread are thrown to the caller once the text read before them has
+ * been consumed. An InputStreamReader drops the text it decoded in a read that fails, so the
+ * source is read a little at a time, and at most the last READ_SIZE chars before an error,
+ * e.g. at the end of a truncated .gz file, are lost. Closing the reader stops the thread,
+ * which then closes the source.
+ */
+public class ReadAheadReader extends Reader {
+
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+    private static final int BLOCKS = 3;
+    private static final int READ_SIZE = 1024;
+
+    private static class Block {
+        final char[] chars;
+        int length;
+
+        Block(int size){
+            chars = new char[size];
+        }
+    }
+
+    // marks the end of the text, after any error
+    private static final Block END = new Block(0);
+
+    private final Reader source;
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(BLOCKS);
+    private final BlockingQueue<Block> filled = new ArrayBlockingQueue<Block>(BLOCKS + 1);
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private volatile Exception error = null;
+
+    private Block current = null;
+    private int pos = 0;
+
+    public ReadAheadReader(Reader source, String name){
+        this(source, name, DEFAULT_BLOCK_SIZE);
+    }
+
+    public ReadAheadReader(Reader source, String name, int blockSize){
+        this.source = source;
+        for (int i = 0; i < BLOCKS; i++) {
+            free.add(new Block(blockSize));
+        }
+        thread = new Thread(this::readAhead, "read-ahead " + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readAhead(){
+        try {
+            while (!closed) {
+                Block block = free.take();
+                block.length = fill(block.chars);
+                if (block.length > 0) {
+                    filled.put(block);
+                }
+                if (block.length < block.chars.length) {
+                    // the end of the source, or an error after the text put on filled
+                    break;
+                }
+            }
+        } catch (InterruptedException e){
+            // closed
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e){
+                // nothing more to read from it
+            }
+            filled.offer(END);
+        }
+    }
+
+    /**
+     * Reads from the source until chars is full or the source ends, and returns the number of
+     * chars read. On an error, it is kept for the caller and the chars read before it returned.
+     */
+    private int fill(char[] chars){
+        int n = 0;
+        try {
+            while (n < chars.length) {
+                int read = source.read(chars, n, Math.min(READ_SIZE, chars.length - n));
+                if (read < 0) {
+                    break;
+                }
+                n += read;
+            }
+        } catch (IOException | RuntimeException e){
+            error = e;
+        }
+        return n;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Reader closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (current == null || pos == current.length) {
+            if (current == END) {
+                return -1;
+            }
+            if (current != null) {
+                free.offer(current);
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e){
+                current = null;
+                throw new InterruptedIOException();
+            }
+            pos = 0;
+            if (current == END) {
+                if (error instanceof IOException) {
+                    throw (IOException) error;
+                } else if (error != null) {
+                    throw new IOException(error);
+                }
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.chars, pos, cbuf, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close(){
+        if (!closed) {
+            closed = true;
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package lucene4ir.utils;
+
+import lucene4ir.IndexerApp;
+import lucene4ir.Lucene4IRConstants;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Gets back the text of the "all" field of the documents of an index.
+ *
+ * The indexers no longer store "all", which only repeated the text of the other fields.
+ * Indexes that do store it get the stored value. Otherwise, if "all" has term vectors with
+ * positions, its terms are put back in the order they were indexed in; these are the terms
+ * after analysis, e.g. lower cased and stemmed. Otherwise the stored values of the fields
+ * the indexer made "all" of, which IndexerApp lists in the commit user data, are joined.
+ * If none of these is there, e.g. for a TRECNEWS index, whose "all" is the whole record, the
+ * text cannot be had, and all throws an IllegalStateException rather than return other text.
+ */
+public class StoredText {
+
+    private final IndexReader reader;
+    // the stored fields "all" is made of, or null if the index does not say
+    private final List<String> sources;
+    private final Set<String> fieldsToLoad = new HashSet<String>();
+
+    public StoredText(IndexReader reader) throws IOException {
+        this.reader = reader;
+        String fields = null;
+        if (reader instanceof DirectoryReader) {
+            fields = ((DirectoryReader) reader).getIndexCommit().getUserData().get(IndexerApp.ALL_FIELDS);
+        }
+        sources = fields == null ? null : Arrays.asList(fields.split(","));
+        fieldsToLoad.add(Lucene4IRConstants.FIELD_ALL);
+        if (sources != null) {
+            fieldsToLoad.addAll(sources);
+        }
+    }
+
+    public String all(int docid) throws IOException {
+        Document doc = reader.document(docid, fieldsToLoad);
+        String all = doc.get(Lucene4IRConstants.FIELD_ALL);
+        if (all != null) {
+            return all;
+        }
+        Terms terms = reader.getTermVector(docid, Lucene4IRConstants.FIELD_ALL);
+        if (terms != null && terms.hasPositions()) {
+            return fromTermVector(terms);
+        }
+        if (sources == null) {
+            throw new IllegalStateException("The text of the all field cannot be rebuilt: it is not stored,"
+                    + " has no term vectors with positions, and the index does not list the fields it is made of");
+        }
+        StringBuilder text = new StringBuilder();
+        for (String field : sources) {
+            for (String value : doc.getValues(field)) {
+                text.append(value).append(' ');
+            }
+        }
+        return text.toString();
+    }
+
+    private static String fromTermVector(Terms terms) throws IOException {
+        List<String> positions = new ArrayList<String>();
+        TermsEnum te = terms.iterator();
+        PostingsEnum postings = null;
+        BytesRef term;
+        while ((term = te.next()) != null) {
+            String text = term.utf8ToString();
+            postings = te.postings(postings, PostingsEnum.POSITIONS);
+            postings.nextDoc();
+            for (int i = 0; i < postings.freq(); i++) {
+                int position = postings.nextPosition();
+                while (positions.size() <= position) {
+                    positions.add(null);
+                }
+                // terms at the same position, e.g. synonyms, are kept together
+                String other = positions.get(position);
+                positions.set(position, other == null ? text : other + ' ' + text);
+            }
+        }
+        positions.removeAll(Collections.singleton(null));
+        return String.join(" ", positions);
+    }
+}
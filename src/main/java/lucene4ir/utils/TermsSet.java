@@ -14,6 +14,8 @@ import java.util.Set;
 
 /**
  * Created by Harry Scells on 26/9/17.
+ * Loads every term of the "all" field into memory; for just the number of terms, use the
+ * vocabularySize in IndexStats instead.
  */
 public class TermsSet implements Iterable<String> {
 
@@ -2,6 +2,7 @@ package lucene4ir.utils;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
 
 import javax.xml.bind.JAXB;
 import javax.xml.bind.annotation.XmlAccessType;
@@ -40,7 +41,17 @@ public class TokenAnalyzerMaker {
             for (lucene4ir.utils.TokenFilter filter : tokenFilters.getTokenFilters()) {
                 System.out.println("Token filter: " + filter.getName());
                 List<lucene4ir.utils.Param> params = filter.getParams();
-                if (params.size() > 0) {
+                if (filter.getCacheSize() != null) {
+                    // the terms the filter makes are remembered, rather than made again each time
+                    Map<String, String> paramMap = new HashMap<>();
+                    for (lucene4ir.utils.Param param : params) {
+                        paramMap.put(param.getKey(), param.getValue());
+                    }
+                    paramMap.put("filter", filter.getName());
+                    paramMap.put("cacheSize", filter.getCacheSize().toString());
+                    System.out.println("Memoizing " + filter.getName() + ", up to " + filter.getCacheSize() + " terms");
+                    builder.addTokenFilter(MemoizingTokenFilterFactory.class, paramMap);
+                } else if (params.size() > 0) {
                     Map<String, String> paramMap = new HashMap<>();
                     for (lucene4ir.utils.Param param : params) {
                         paramMap.put(param.getKey(), param.getValue());
@@ -63,6 +74,19 @@ public class TokenAnalyzerMaker {
 
     }
 
+    /**
+     * Prints how often the memoizing token filters of the analyzer found a term in their cache.
+     */
+    public static void printCacheStats(Analyzer analyzer){
+        if (analyzer instanceof CustomAnalyzer) {
+            for (TokenFilterFactory factory : ((CustomAnalyzer) analyzer).getTokenFilterFactories()) {
+                if (factory instanceof MemoizingTokenFilterFactory) {
+                    System.out.println(factory);
+                }
+            }
+        }
+    }
+
 }
 
 
@@ -113,6 +137,8 @@ class TokenFilters {
 class TokenFilter {
     private String name;
 
+    private Integer cacheSize;
+
     @XmlElement(name = "param", type = lucene4ir.utils.Param.class)
     private List<lucene4ir.utils.Param> params = new ArrayList<>();
 
@@ -124,6 +150,14 @@ class TokenFilter {
         this.name = name;
     }
 
+    public Integer getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(Integer cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
     public List<lucene4ir.utils.Param> getParams() {
         return params;
     }
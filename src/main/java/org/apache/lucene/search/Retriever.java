@@ -2,7 +2,6 @@ package org.apache.lucene.search;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -22,6 +21,7 @@ import java.util.Set;
 import java.util.TreeSet;
 
 import lucene4ir.Lucene4IRConstants;
+import lucene4ir.utils.DocnumLookup;
 
 /**
  * Abstract class that provides common functionalities to perform batch retrieval.
@@ -113,6 +113,7 @@ public abstract class Retriever {
             BufferedReader br = new BufferedReader(new FileReader(p.queryFile));
             File file = new File(p.resultFile);
             FileWriter fw = new FileWriter(file);
+            DocnumLookup docnums = new DocnumLookup(reader);
 
             try {
                 String line = br.readLine();
@@ -129,8 +130,7 @@ public abstract class Retriever {
                     int n = Math.min(p.maxResults, scored.length);
 
                     for(int i=0; i<n; i++){
-                        Document doc = searcher.doc(scored[i].doc);
-                        String docno = doc.get("docnum");
+                        String docno = docnums.get(scored[i].doc);
                         fw.write(qno + " QO " + docno + " " + (i+1) + " " + scored[i].score + " " + p.runTag);
                         fw.write(System.lineSeparator());
                     }
@@ -1,5 +1,6 @@
 package org.apache.lucene.search;
 
+import lucene4ir.utils.FieldLengths;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.PostingsEnum;
@@ -101,8 +102,8 @@ public class RetrieverOkapiBM25 extends Retriever {
 
                 }
 
-                // retrieve norms that stores document lengths of the field to query
-                NumericDocValues norms = leafReaderContext.reader().getNormValues(fieldToQuery);
+                // retrieve the exact document lengths of the field to query (see FieldLengths)
+                NumericDocValues lengths = FieldLengths.getLengths(leafReaderContext.reader(), fieldToQuery);
 
                 // iterate over the documents in the index segment
                 for (int doc = 0; doc < leafReaderContext.reader().numDocs(); doc++) {
@@ -114,7 +115,7 @@ public class RetrieverOkapiBM25 extends Retriever {
 
                     float score = 0.0f;
 
-                    long docLength = norms.get(doc);
+                    long docLength = lengths == null ? 0 : lengths.get(doc);
 
                     // iterate over all the posting list associated to query terms
                     for (int qt = 0; qt < postingLists.length; qt++) {